@@ -58,6 +58,7 @@ public class Coff {
 	    
 	    int magic = Lib.bytesToUnsignedShort(headers, 0);
 	    int numSections = Lib.bytesToUnsignedShort(headers, 2);
+	    int symbolsOffset = Lib.bytesToInt(headers, 8);
 	    int optionalHeaderLength = Lib.bytesToUnsignedShort(headers, 16);
 	    int flags = Lib.bytesToUnsignedShort(headers, 18);
 	    entryPoint = Lib.bytesToInt(headers, headerLength+16);
@@ -89,6 +90,83 @@ public class Coff {
 		    throw e;
 		}
 	    }
+
+	    if (Machine.profiler() != null && symbolsOffset != 0)
+		readProcedures(symbolsOffset);
+	}
+    }
+
+    /**
+     * Read the procedure symbols from the ECOFF symbolic header at the
+     * specified offset, and give them to the profiler. Stripped
+     * executables still have local symbols for every procedure, in the
+     * per-file tables. Anything unexpected is ignored, since the symbols
+     * are not needed to run the program. This costs one more read from the
+     * file system when profiling.
+     *
+     * @param	offset	the file offset of the symbolic header.
+     */
+    private void readProcedures(int offset) {
+	// the symbol tables follow the symbolic header, so read them all at
+	// once, rather than paying for several reads from the file system
+	int length = file.length() - offset;
+	if (length < symbolicHeaderLength) {
+	    Lib.debug(dbgCoff, "\tno symbolic header");
+	    return;
+	}
+
+	byte[] data = new byte[length];
+	if (file.read(offset, data, 0, length) != length ||
+	    Lib.bytesToUnsignedShort(data, 0) != 0x7009) {
+	    Lib.debug(dbgCoff, "\tno symbolic header");
+	    return;
+	}
+
+	// table offsets in the header are relative to the start of the file
+	int numSymbols = Lib.bytesToInt(data, 32);
+	int symbols = Lib.bytesToInt(data, 36) - offset;
+	int stringsLength = Lib.bytesToInt(data, 56);
+	int strings = Lib.bytesToInt(data, 60) - offset;
+	int numFiles = Lib.bytesToInt(data, 72);
+	int files = Lib.bytesToInt(data, 76) - offset;
+
+	if (numSymbols < 0 || symbols < 0 ||
+	    symbols + numSymbols*symbolLength > length ||
+	    stringsLength < 0 || strings < 0 ||
+	    strings + stringsLength > length ||
+	    numFiles < 0 || files < 0 ||
+	    files + numFiles*fileDescriptorLength > length) {
+	    Lib.debug(dbgCoff, "\tbad symbolic header");
+	    return;
+	}
+
+	for (int f=0; f<numFiles; f++) {
+	    int fileOffset = files + f*fileDescriptorLength;
+	    int stringsBase = Lib.bytesToInt(data, fileOffset+8);
+	    int firstSymbol = Lib.bytesToInt(data, fileOffset+16);
+	    int fileSymbols = Lib.bytesToInt(data, fileOffset+20);
+
+	    for (int i=firstSymbol; i<firstSymbol+fileSymbols; i++) {
+		if (i < 0 || i >= numSymbols)
+		    break;
+		
+		int symbolOffset = symbols + i*symbolLength;
+		int nameOffset = Lib.bytesToInt(data, symbolOffset);
+		int value = Lib.bytesToInt(data, symbolOffset+4);
+		int type = Lib.extract(Lib.bytesToInt(data, symbolOffset+8),
+				       0, 6);
+
+		if (type != symbolProcedure && type != symbolStaticProcedure)
+		    continue;
+
+		nameOffset += stringsBase;
+		if (nameOffset < 0 || nameOffset >= stringsLength)
+		    continue;
+		
+		String name = Lib.bytesToString(data, strings+nameOffset,
+						stringsLength-nameOffset);
+		Machine.profiler().addProcedure(value, name);
+	    }
 	}
     }
 
@@ -147,5 +225,11 @@ public class Coff {
     private static final int headerLength = 20;
     private static final int aoutHeaderLength = 28;
 
+    private static final int symbolicHeaderLength = 96;
+    private static final int symbolLength = 12;
+    private static final int fileDescriptorLength = 72;
+    private static final int symbolProcedure = 6;
+    private static final int symbolStaticProcedure = 14;
+
     private static final char dbgCoff = 'c';
 }
@@ -0,0 +1,278 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A log of every input that reaches the simulation from outside it, used to
+ * reproduce a run exactly.
+ *
+ * <p>
+ * Given the same random seed and the same inputs at the same simulated
+ * times, a Nachos run is deterministic. In <tt>record</tt> mode, the seed,
+ * every character read from the console, the network link address, and
+ * every packet received are written to the log along with the simulated time
+ * they arrived. In <tt>replay</tt> mode, the log supplies them instead, at
+ * the same simulated times, and the real console and network are never
+ * touched.
+ *
+ * <p>
+ * The mode is set by <tt>InputLog.mode</tt> (<tt>off</tt>, <tt>record</tt>,
+ * or <tt>replay</tt>), and the log file by <tt>InputLog.file</tt>.
+ */
+public final class InputLog {
+    /**
+     * Allocate a new input log.
+     *
+     * @param	privilege      	encapsulates privileged access to the Nachos
+     *				machine.
+     * @param	mode		<tt>record</tt> or <tt>replay</tt>.
+     * @param	randomSeed	the random seed of this run.
+     */
+    public InputLog(Privilege privilege, String mode, long randomSeed) {
+	System.out.print(" " + mode);
+
+	this.privilege = privilege;
+
+	if (mode.equals("replay"))
+	    replaying = true;
+	else if (!mode.equals("record"))
+	    Lib.assertNotReached("bad value for InputLog.mode");
+
+	final String name = Config.getString("InputLog.file", "nachos.log");
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() { open(name); }
+	    });
+
+	Lib.assertTrue(in != null || out != null, "could not open " + name);
+
+	try {
+	    if (replaying) {
+		Lib.assertTrue(in.readInt() == magic, name + " is not a log");
+		this.randomSeed = in.readLong();
+		readEvent();
+	    }
+	    else {
+		this.randomSeed = randomSeed;
+		out.writeInt(magic);
+		out.writeLong(randomSeed);
+		out.flush();
+	    }
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("could not access " + name);
+	}
+    }
+
+    private void open(String name) {
+	try {
+	    if (replaying)
+		in = new DataInputStream(new BufferedInputStream(
+		    new FileInputStream(name)));
+	    else
+		out = new DataOutputStream(new BufferedOutputStream(
+		    new FileOutputStream(name)));
+	}
+	catch (IOException e) {
+	}
+    }
+
+    /**
+     * Return the random seed to use. When replaying, this is the seed of the
+     * recorded run.
+     *
+     * @return	the random seed.
+     */
+    public long getRandomSeed() {
+	return randomSeed;
+    }
+
+    /**
+     * Test whether inputs are coming from the log instead of the real
+     * devices.
+     *
+     * @return	<tt>true</tt> if replaying a log.
+     */
+    public boolean isReplaying() {
+	return replaying;
+    }
+
+    /**
+     * Record a poll of the console.
+     *
+     * @param	value	the byte read, or -1 if none was available.
+     */
+    public void recordConsole(int value) {
+	if (value == -1)
+	    return;
+
+	try {
+	    writeEvent(eventConsole);
+	    out.writeInt(value);
+	    out.flush();
+	}
+	catch (IOException e) {
+	}
+    }
+
+    /**
+     * Replay a poll of the console.
+     *
+     * @return	the byte that was read at this time, or -1 if none was.
+     */
+    public int replayConsole() {
+	if (!eventDue(eventConsole))
+	    return -1;
+
+	try {
+	    int value = in.readInt();
+	    readEvent();
+	    return value;
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("truncated log");
+	    return -1;
+	}
+    }
+
+    /**
+     * Record the link address assigned to the network link.
+     *
+     * @param	linkAddress	the link address.
+     */
+    public void recordLinkAddress(int linkAddress) {
+	try {
+	    writeEvent(eventLinkAddress);
+	    out.writeInt(linkAddress);
+	    out.flush();
+	}
+	catch (IOException e) {
+	}
+    }
+
+    /**
+     * Replay the assignment of a link address to the network link.
+     *
+     * @return	the link address that was assigned.
+     */
+    public int replayLinkAddress() {
+	Lib.assertTrue(eventDue(eventLinkAddress), "replay diverged");
+
+	try {
+	    int linkAddress = in.readInt();
+	    readEvent();
+	    return linkAddress;
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("truncated log");
+	    return -1;
+	}
+    }
+
+    /**
+     * Record the arrival of a packet.
+     *
+     * @param	packetBytes	the contents of the packet.
+     */
+    public void recordPacket(byte[] packetBytes) {
+	try {
+	    writeEvent(eventPacket);
+	    out.writeInt(packetBytes.length);
+	    out.write(packetBytes);
+	    out.flush();
+	}
+	catch (IOException e) {
+	}
+    }
+
+    /**
+     * Replay a poll of the network link.
+     *
+     * @return	the contents of the packet that arrived at this time, or
+     *		<tt>null</tt> if none did.
+     */
+    public byte[] replayPacket() {
+	if (!eventDue(eventPacket))
+	    return null;
+
+	try {
+	    byte[] packetBytes = new byte[in.readInt()];
+	    in.readFully(packetBytes);
+	    readEvent();
+	    return packetBytes;
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("truncated log");
+	    return null;
+	}
+    }
+
+    private void writeEvent(int kind) throws IOException {
+	Lib.assertTrue(!replaying);
+
+	out.writeLong(privilege.stats.totalTicks);
+	out.writeByte(kind);
+    }
+
+    /**
+     * Read the time and kind of the next event, leaving its contents to be
+     * read when it is replayed.
+     */
+    private void readEvent() {
+	try {
+	    nextTime = in.readLong();
+	    nextKind = in.readByte();
+	}
+	catch (EOFException e) {
+	    nextKind = eventNone;
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("could not read log");
+	}
+    }
+
+    /**
+     * Test whether the next event is of the specified kind and due now. An
+     * event that should already have happened means this run has diverged
+     * from the recorded one.
+     */
+    private boolean eventDue(int kind) {
+	Lib.assertTrue(replaying);
+
+	if (nextKind == eventNone)
+	    return false;
+
+	long time = privilege.stats.totalTicks;
+	Lib.assertTrue(nextTime >= time, "replay diverged");
+
+	return (nextTime == time && nextKind == kind);
+    }
+
+    private Privilege privilege;
+    private boolean replaying = false;
+    private long randomSeed;
+
+    private DataOutputStream out = null;
+    private DataInputStream in = null;
+
+    private long nextTime;
+    private int nextKind;
+
+    private static final int magic = 0x4E4C4F47;	// "NLOG"
+
+    private static final int eventNone = -1;
+    private static final int eventConsole = 0;
+    private static final int eventLinkAddress = 1;
+    private static final int eventPacket = 2;
+}
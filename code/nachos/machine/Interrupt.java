@@ -4,10 +4,6 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
-
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
  * hardware provides a method (<tt>setStatus()</tt>) to enable or disable
@@ -53,7 +49,6 @@ public final class Interrupt {
 	privilege.interrupt = new InterruptPrivilege();
 	
 	enabled = false;
-	pending = new TreeSet<PendingInterrupt>();
     }
 
     /**
@@ -120,17 +115,139 @@ public final class Interrupt {
 	return !enabled;
     }
 
+    /**
+     * Let simulated time pass while there is nothing to do, up to the last
+     * kernel tick before the next pending interrupt falls due, so that the
+     * next tick dispatches it. Time passes exactly as if the idle thread had
+     * spun until then, one tick per loop, but without running the loop.
+     * Called by the kernel when no thread is ready to run.
+     */
+    public void idle() {
+	Stats stats = privilege.stats;
+
+	// with interrupt debugging on, every tick is printed
+	if (numPending == 0 || Lib.test(dbgInt))
+	    return;
+
+	long ticks = (pendingTime[0] - stats.totalTicks - 1) / Stats.KernelTick;
+
+	if (ticks > 0) {
+	    stats.kernelTicks += ticks * Stats.KernelTick;
+	    stats.totalTicks += ticks * Stats.KernelTick;
+	}
+    }
+
     private void schedule(long when, String type, Runnable handler) {
 	Lib.assertTrue(when>0);
 	
 	long time = privilege.stats.totalTicks + when;
-	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
+	long id = numPendingInterruptsCreated++;
+
+	if (Lib.test(dbgInt))
+	    System.out.println("Scheduling the " + type +
+			       " interrupt handler at time = " + time);
+
+	if (numPending == pendingTime.length)
+	    growPending();
+
+	// sift the new interrupt up from the bottom of the heap
+	int i = numPending++;
+	while (i > 0) {
+	    int parent = (i-1) / 2;
+	    if (!before(time, id, parent))
+		break;
+
+	    movePending(parent, i);
+	    i = parent;
+	}
+
+	setPending(i, time, id, type, handler);
+    }
+
+    private void cancel(Runnable handler) {
+	// drop the matching interrupts, packing the rest to the front
+	int kept = 0;
+	for (int i=0; i<numPending; i++) {
+	    if (pendingHandler[i] == handler) {
+		if (Lib.test(dbgInt))
+		    System.out.println("Cancelling the " + pendingType[i] +
+				       " interrupt handler at time = " +
+				       pendingTime[i]);
+		continue;
+	    }
+
+	    if (kept != i)
+		movePending(i, kept);
+	    kept++;
+	}
+
+	if (kept == numPending)
+	    return;
+
+	for (int i=kept; i<numPending; i++) {
+	    pendingType[i] = null;
+	    pendingHandler[i] = null;
+	}
+	numPending = kept;
+
+	// then rebuild the heap from the bottom up
+	for (int i=numPending/2-1; i>=0; i--) {
+	    siftDown(i, pendingTime[i], pendingID[i], pendingType[i],
+		     pendingHandler[i]);
+	}
+    }
+
+    /**
+     * Remove the pending interrupt at position <i>i</i> from the heap.
+     */
+    private void removePending(int i) {
+	int last = --numPending;
+	long time = pendingTime[last];
+	long id = pendingID[last];
+	String type = pendingType[last];
+	Runnable handler = pendingHandler[last];
+
+	// don't hold on to handlers that will never run
+	pendingType[last] = null;
+	pendingHandler[last] = null;
+
+	if (i == last)
+	    return;
+
+	// move the last interrupt into the hole, then up or down into place
+	while (i > 0) {
+	    int parent = (i-1) / 2;
+	    if (!before(time, id, parent))
+		break;
+
+	    movePending(parent, i);
+	    i = parent;
+	}
 
-	Lib.debug(dbgInt,
-		  "Scheduling the " + type +
-		  " interrupt handler at time = " + time);
+	siftDown(i, time, id, type, handler);
+    }
+
+    /**
+     * Put the specified interrupt into the hole at position <i>i</i> of the
+     * heap, or below it if its children come before it.
+     */
+    private void siftDown(int i, long time, long id, String type,
+			  Runnable handler) {
+	while (true) {
+	    int child = 2*i + 1;
+	    if (child >= numPending)
+		break;
+	    if (child+1 < numPending &&
+		before(pendingTime[child+1], pendingID[child+1], child))
+		child++;
+	    if (!before(pendingTime[child], pendingID[child], time, id))
+		break;
+
+	    movePending(child, i);
+	    i = child;
+	}
 
-	pending.add(toOccur);
+	setPending(i, time, id, type, handler);
     }
 
     private void tick(boolean inKernelMode) {
@@ -153,6 +270,28 @@ public final class Interrupt {
 	enabled = true;
     }
 
+    private int userTicksBeforeDue() {
+	if (Lib.test(dbgInt))
+	    return 0;
+	
+	if (numPending == 0)
+	    return Integer.MAX_VALUE;
+
+	long ticks = ((pendingTime[0] - privilege.stats.totalTicks - 1) /
+		      Stats.UserTick);
+
+	return (int) Math.max(0, Math.min(ticks, Integer.MAX_VALUE));
+    }
+
+    private void advanceUserTicks(int ticks) {
+	Stats stats = privilege.stats;
+
+	stats.userTicks += ticks * Stats.UserTick;
+	stats.totalTicks += ticks * Stats.UserTick;
+	
+	Lib.assertTrue(numPending == 0 || pendingTime[0] > stats.totalTicks);
+    }
+
     private void checkIfDue() {
 	long time = privilege.stats.totalTicks;
 
@@ -161,27 +300,27 @@ public final class Interrupt {
 	if (Lib.test(dbgInt))
 	    print();
 
-	if (pending.isEmpty())
-	    return;
-
-	if (((PendingInterrupt) pending.first()).time > time)
+	if (numPending == 0 || pendingTime[0] > time)
 	    return;
 
-	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
+	if (Lib.test(dbgInt))
+	    System.out.println("Invoking interrupt handlers at time = " + time);
 	
-	while (!pending.isEmpty() &&
-	       ((PendingInterrupt) pending.first()).time <= time) {
-	    PendingInterrupt next = (PendingInterrupt) pending.first();
-	    pending.remove(next);
-
-	    Lib.assertTrue(next.time <= time);
+	while (numPending > 0 && pendingTime[0] <= time) {
+	    String type = pendingType[0];
+	    Runnable handler = pendingHandler[0];
+	    removePending(0);
 
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
+	    if (Lib.test(dbgInt))
+		System.out.println("  " + type);
+
+	    if (Machine.tracer() != null)
+		Machine.tracer().interrupt(type);
 			
-	    next.handler.run();
+	    handler.run();
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
@@ -192,44 +331,66 @@ public final class Interrupt {
 			   + ", interrupts " + (enabled ? "on" : "off"));
 	System.out.println("Pending interrupts:");
 
-	for (Iterator i=pending.iterator(); i.hasNext(); ) {
-	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
-	    System.out.println("  " + toOccur.type +
-			       ", scheduled at " + toOccur.time);
+	// the heap is only partly ordered, so sort a copy of it
+	int[] order = new int[numPending];
+	for (int i=0; i<numPending; i++) {
+	    int j = i;
+	    for (; j>0 && before(pendingTime[i], pendingID[i], order[j-1]); j--)
+		order[j] = order[j-1];
+	    order[j] = i;
+	}
+
+	for (int i=0; i<numPending; i++) {
+	    System.out.println("  " + pendingType[order[i]] +
+			       ", scheduled at " + pendingTime[order[i]]);
 	}
 
 	System.out.println("  (end of list)");
     }
 
-    private class PendingInterrupt implements Comparable {
-	PendingInterrupt(long time, String type, Runnable handler) {
-	    this.time = time;
-	    this.type = type;
-	    this.handler = handler;
-	    this.id = numPendingInterruptsCreated++;
-	}
+    /**
+     * Test whether an interrupt at <i>time</i>, created as number <i>id</i>,
+     * should occur before the pending interrupt at position <i>i</i> in the
+     * heap.
+     */
+    private boolean before(long time, long id, int i) {
+	return before(time, id, pendingTime[i], pendingID[i]);
+    }
 
-	public int compareTo(Object o) {
-	    PendingInterrupt toOccur = (PendingInterrupt) o;
+    private static boolean before(long time1, long id1, long time2, long id2) {
+	return time1 < time2 || (time1 == time2 && id1 < id2);
+    }
 
-	    // can't return 0 for unequal objects, so check all fields
-	    if (time < toOccur.time)
-		return -1;
-	    else if (time > toOccur.time)
-		return 1;
-	    else if (id < toOccur.id)
-		return -1;
-	    else if (id > toOccur.id)
-		return 1;
-	    else
-		return 0;
-	}
+    private void movePending(int from, int to) {
+	setPending(to, pendingTime[from], pendingID[from], pendingType[from],
+		   pendingHandler[from]);
+    }
 
-	long time;
-	String type;
-	Runnable handler;
+    private void setPending(int i, long time, long id, String type,
+			    Runnable handler) {
+	pendingTime[i] = time;
+	pendingID[i] = id;
+	pendingType[i] = type;
+	pendingHandler[i] = handler;
+    }
+
+    private void growPending() {
+	int capacity = pendingTime.length * 2;
+
+	long[] time = new long[capacity];
+	long[] id = new long[capacity];
+	String[] type = new String[capacity];
+	Runnable[] handler = new Runnable[capacity];
 
-	private long id;
+	System.arraycopy(pendingTime, 0, time, 0, numPending);
+	System.arraycopy(pendingID, 0, id, 0, numPending);
+	System.arraycopy(pendingType, 0, type, 0, numPending);
+	System.arraycopy(pendingHandler, 0, handler, 0, numPending);
+
+	pendingTime = time;
+	pendingID = id;
+	pendingType = type;
+	pendingHandler = handler;
     }
     
     private long numPendingInterruptsCreated = 0;
@@ -237,7 +398,21 @@ public final class Interrupt {
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+
+    /**
+     * The pending interrupts, as a binary heap ordered by time, and then by
+     * the order in which they were scheduled. Position <i>i</i> in the heap
+     * is held in entry <i>i</i> of each of these arrays, and its children are
+     * at <i>2i+1</i> and <i>2i+2</i>. The arrays only grow, so scheduling an
+     * interrupt does not allocate anything once they are large enough.
+     */
+    private long[] pendingTime = new long[initialPending];
+    private long[] pendingID = new long[initialPending];
+    private String[] pendingType = new String[initialPending];
+    private Runnable[] pendingHandler = new Runnable[initialPending];
+    private int numPending = 0;
+
+    private static final int initialPending = 16;
 
     private static final char dbgInt = 'i';
 
@@ -249,5 +424,17 @@ public final class Interrupt {
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public void cancel(Runnable handler) {
+	    Interrupt.this.cancel(handler);
+	}
+
+	public int userTicksBeforeDue() {
+	    return Interrupt.this.userTicksBeforeDue();
+	}
+
+	public void advanceUserTicks(int ticks) {
+	    Interrupt.this.advanceUserTicks(ticks);
+	}
     }
 }
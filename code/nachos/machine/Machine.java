@@ -96,6 +96,8 @@ public final class Machine {
      */
     public static void halt() {
 	System.out.print("Machine halting!\n\n");
+	if (profiler != null)
+	    profiler.report();
 	stats.print();
 	terminate();
     }
@@ -162,17 +164,30 @@ public final class Machine {
 		}
 	    }
 	}
-
-	Lib.seedRandom(randomSeed);
     }
 
     private static void createDevices() {
+	// a replayed run must use the recorded run's random seed
+	String inputLogMode = Config.getString("InputLog.mode", "off");
+	if (!inputLogMode.equals("off")) {
+	    inputLog = new InputLog(privilege, inputLogMode, randomSeed);
+	    randomSeed = inputLog.getRandomSeed();
+	}
+
+	Lib.seedRandom(randomSeed);
+
 	interrupt = new Interrupt(privilege);
 	timer = new Timer(privilege);
 
 	if (Config.getBoolean("Machine.bank"))
 	    bank = new ElevatorBank(privilege);
 
+	if (Config.getBoolean("Machine.profiler", false))
+	    profiler = new Profiler(privilege);
+
+	if (Config.getBoolean("Machine.tracer", false))
+	    tracer = new Tracer(privilege);
+
 	if (Config.getBoolean("Machine.processor")) {
 	    if (numPhysPages == -1)
 		numPhysPages = Config.getInteger("Processor.numPhysPages");
@@ -323,6 +338,28 @@ public final class Machine {
      */     
     public static Processor processor() { return processor; }
     
+    /**
+     * Return the user program profiler.
+     *
+     * @return	the profiler, or <tt>null</tt> if it is not present.
+     */
+    public static Profiler profiler() { return profiler; }
+
+    /**
+     * Return the binary trace recorder.
+     *
+     * @return	the trace recorder, or <tt>null</tt> if it is not present.
+     */
+    public static Tracer tracer() { return tracer; }
+
+    /**
+     * Return the log of external inputs.
+     *
+     * @return	the input log, or <tt>null</tt> if inputs are not being
+     *		recorded or replayed.
+     */
+    public static InputLog inputLog() { return inputLog; }
+
     /**
      * Return the hardware console.
      *
@@ -355,6 +392,9 @@ public final class Machine {
     private static Timer timer = null;
     private static ElevatorBank bank = null;
     private static Processor processor = null;
+    private static Profiler profiler = null;
+    private static Tracer tracer = null;
+    private static InputLog inputLog = null;
     private static SerialConsole console = null;
     private static FileSystem stubFileSystem = null;
     private static NetworkLink networkLink = null;
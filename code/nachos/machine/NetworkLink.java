@@ -89,6 +89,26 @@ public class NetworkLink {
 
 	socket = null;
 
+	// when replaying, packets come from the log and go nowhere
+	InputLog log = Machine.inputLog();
+	if (log != null && log.isReplaying()) {
+	    linkAddress = (byte) log.replayLinkAddress();
+	    replaying = true;
+
+	    System.out.print("(" + linkAddress + ")");
+	    
+	    receiveInterrupt = new Runnable() {
+		    public void run() { receiveInterrupt(); }
+		};
+
+	    sendInterrupt = new Runnable() {
+		    public void run() { sendInterrupt(); }
+		};		
+
+	    scheduleReceiveInterrupt();
+	    return;
+	}
+
 	for (linkAddress=0;linkAddress<Packet.linkAddressLimit;linkAddress++) {
 	    try {
 		socket = new DatagramSocket(portBase + linkAddress, localHost);
@@ -106,6 +126,9 @@ public class NetworkLink {
 
 	System.out.print("(" + linkAddress + ")");
 
+	if (log != null)
+	    log.recordLinkAddress(linkAddress);
+
 	receiveInterrupt = new Runnable() {
 		public void run() { receiveInterrupt(); }
 	    };
@@ -163,6 +186,12 @@ public class NetworkLink {
     private synchronized void receiveInterrupt() {
 	Lib.assertTrue(incomingPacket == null);
 
+	InputLog log = Machine.inputLog();
+	if (replaying)
+	    incomingBytes = log.replayPacket();
+	else if (log != null && incomingBytes != null)
+	    log.recordPacket(incomingBytes);
+
 	if (incomingBytes != null) {
 	    if (Machine.autoGrader().canReceivePacket(privilege)) {
 		try {
@@ -266,6 +295,11 @@ public class NetworkLink {
     private void sendPacket() {
 	Packet p = outgoingPacket;
 	outgoingPacket = null;
+
+	if (replaying) {
+	    privilege.stats.numPacketsSent++;
+	    return;
+	}
 	
 	try {
 	    socket.send(new DatagramPacket(p.packetBytes, p.packetBytes.length,
@@ -326,4 +360,5 @@ public class NetworkLink {
     private Packet outgoingPacket = null;
 
     private boolean sendBusy = false;
+    private boolean replaying = false;
 }
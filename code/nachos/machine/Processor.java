@@ -4,6 +4,10 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -45,9 +49,104 @@ public final class Processor {
 	for (int i=0; i<numUserRegisters; i++)
 	    registers[i] = 0;
 
+	// physical addresses are ints, so memory must fit in 2GB
+	Lib.assertTrue(numPhysPages > 0 &&
+		       numPhysPages <= Integer.MAX_VALUE / pageSize,
+		       "too much physical memory");
+
 	mainMemory = new byte[pageSize * numPhysPages];
 
+	memory = ByteBuffer.wrap(mainMemory).order(ByteOrder.LITTLE_ENDIAN);
+
+	// Processor.decodeCache and the threaded and jit engines keep decoded
+	// instructions per physical page, and only user stores invalidate
+	// them. With any of them on, a kernel that writes user memory through
+	// getMemory() (writeVirtualMemory(), loading a page, and so on) must
+	// call invalidatePage() for each page it writes, which the baseline
+	// hardware never required; so all of these default to off.
+
+	// the disassembler needs to see every fetch, so don't cache decodes
+	boolean tracing = (Lib.test(dbgProcessor) || Lib.test(dbgDisassemble) ||
+			   Lib.test(dbgFullDisassemble));
+
+	if (Config.getBoolean("Processor.decodeCache", false) && !tracing)
+	    decodeCache = new Instruction[numPhysPages][];
+	else
+	    decodeCache = null;
+
+	int cacheSize = Config.getInteger("Processor.translationCache", 0);
+	if (cacheSize > 0 && !tracing) {
+	    Lib.assertTrue((cacheSize & (cacheSize-1)) == 0,
+			   "Processor.translationCache must be a power of 2");
+	    
+	    cachedVPN = new int[cacheSize];
+	    cachedBase = new int[cacheSize];
+	    cachedGeneration = new int[cacheSize];
+	    cachedWritable = new boolean[cacheSize];
+	    cachedEntry = new TranslationEntry[cacheSize];
+	    cachedTLBIndex = new int[cacheSize];
+
+	    // no vpn is negative, so these slots can never hit
+	    for (int i=0; i<cacheSize; i++)
+		cachedVPN[i] = -1;
+	}
+
+	batchTicks = Config.getBoolean("Processor.batchTicks", false);
+
+	profiler = Machine.profiler();
+	tracer = Machine.tracer();
+
+	// the profiler and tracer need to see every instruction, and the
+	// tracer needs the time of each one, so don't run blocks or batch ticks
+	if (tracer != null)
+	    batchTicks = false;
+
+	String engine = Config.getString("Processor.engine", "interpreter");
+	if (engine.equals("threaded") || engine.equals("jit")) {
+	    if (!tracing && profiler == null && tracer == null)
+		blockCache = new BasicBlock[numPhysPages][];
+
+	    if (engine.equals("jit"))
+		jitThreshold = Config.getInteger("Processor.jitThreshold", 50);
+	}
+	else if (!engine.equals("interpreter")) {
+	    Lib.assertNotReached("bad value for Processor.engine");
+	}
+
 	if (usingTLB) {
+	    tlbSize = Config.getInteger("Processor.tlbSize", 4);
+	    tlbAssociativity =
+		Config.getInteger("Processor.tlbAssociativity", tlbSize);
+	    Lib.assertTrue(tlbSize > 0 && tlbAssociativity > 0 &&
+			   tlbSize % tlbAssociativity == 0,
+			   "bad TLB geometry");
+	    tlbSets = tlbSize / tlbAssociativity;
+
+	    String replacement =
+		Config.getString("Processor.tlbReplacement", "software");
+	    if (replacement.equals("software"))
+		tlbReplacement = tlbSoftware;
+	    else if (replacement.equals("random"))
+		tlbReplacement = tlbRandom;
+	    else if (replacement.equals("fifo"))
+		tlbReplacement = tlbFIFO;
+	    else if (replacement.equals("lru"))
+		tlbReplacement = tlbLRU;
+	    else if (replacement.equals("plru"))
+		tlbReplacement = tlbPLRU;
+	    else
+		Lib.assertNotReached("bad value for Processor.tlbReplacement");
+
+	    // the pseudo-LRU tree needs a power-of-2 number of ways
+	    Lib.assertTrue(tlbReplacement != tlbPLRU ||
+			   ((tlbAssociativity & (tlbAssociativity-1)) == 0 &&
+			    tlbAssociativity <= 32),
+			   "plru needs a power of 2 associativity up to 32");
+
+	    tlbStamps = new long[tlbSize];
+	    tlbPTEAddress = new int[tlbSize];
+	    tlbTree = new int[tlbSets];
+
 	    translations = new TranslationEntry[tlbSize];
 	    for (int i=0; i<tlbSize; i++)
 		translations[i] = new TranslationEntry();
@@ -89,22 +188,173 @@ public final class Processor {
 
 	registers[regNextPC] = registers[regPC] + 4;
 
+	Lib.assertTrue(skippedTicks == 0);
+	skippableTicks = 0;
+
 	Machine.autoGrader().runProcessor(privilege);
 
 	Instruction inst = new Instruction();
+
+	if (blockCache != null) {
+	    runBlocks(inst);
+	    return;
+	}
 	
 	while (true) {
+	    int pc = registers[regPC];
+	    
 	    try {
-		inst.run();
+		Instruction fetched = fetch(inst);
+		fetched.run();
+
+		if (profiler != null)
+		    profiler.instruction(pc);
+		if (tracer != null) {
+		    int addr = fetched.accessesMemory() ? fetched.addr : 0;
+		    tracer.instruction(pc, fetched.value, addr);
+		}
 	    }
 	    catch (MipsException e) {
 		e.handle();
 	    }
 
-	    privilege.interrupt.tick(false);
+	    tick();
 	}
     }
 
+    /**
+     * Advance the simulated time by one user instruction.
+     *
+     * <p>
+     * If tick batching is enabled, and no pending interrupt can fall due on
+     * this tick, only count the tick. Counted ticks are added to the
+     * statistics in bulk by <tt>flushTicks()</tt>, before any interrupt
+     * handler or exception handler can see them.
+     */
+    private void tick() {
+	if (skippableTicks > 0) {
+	    skippableTicks--;
+	    skippedTicks++;
+	    return;
+	}
+	
+	flushTicks();
+	privilege.interrupt.tick(false);
+
+	if (batchTicks)
+	    skippableTicks = privilege.interrupt.userTicksBeforeDue();
+    }
+
+    /**
+     * Add any ticks counted by <tt>tick()</tt> to the statistics.
+     */
+    private void flushTicks() {
+	if (skippedTicks > 0) {
+	    privilege.interrupt.advanceUserTicks(skippedTicks);
+	    skippedTicks = 0;
+	}
+    }
+
+    /**
+     * Run instructions a basic block at a time. Never returns.
+     *
+     * <p>
+     * Only the first instruction of each block is translated through the
+     * page table. The rest are known to lie on the same page, and their
+     * translation cannot change unless the kernel runs, so the block is
+     * abandoned as soon as an interrupt handler or exception handler is
+     * invoked, or the page holding the block is written. With a TLB, every
+     * instruction is translated, as the interpreter does, so that TLB hits
+     * and the replacement state do not depend on the engine.
+     *
+     * @param	scratch	an instruction to decode into when stepping a single
+     *			instruction.
+     */
+    private void runBlocks(Instruction scratch) {
+	while (true) {
+	    // a block assumes its instructions follow one another, which is
+	    // not the case when we're about to run a branch delay slot
+	    if (registers[regNextPC] != registers[regPC]+4) {
+		try {
+		    fetch(scratch).run();
+		}
+		catch (MipsException e) {
+		    e.handle();
+		}
+
+		tick();
+		continue;
+	    }
+
+	    BasicBlock block;
+	    try {
+		block = fetchBlock();
+	    }
+	    catch (MipsException e) {
+		e.handle();
+		tick();
+		continue;
+	    }
+
+	    int startEpoch = epoch;
+
+	    if (block.compiled == false && jitThreshold > 0 &&
+		++block.entries >= jitThreshold)
+		block.compile();
+
+	    for (int i=0; i<block.code.length; i++) {
+		Op op = block.code[i];
+
+		try {
+		    if (usingTLB && i > 0) {
+			int paddr = translate(registers[regPC], 4, false);
+
+			// a page table walk may have mapped the page elsewhere
+			if (paddr != block.paddr + i*4) {
+			    scratch.decode(memory.getInt(paddr));
+			    op = scratch;
+			}
+		    }
+
+		    op.run();
+		}
+		catch (MipsException e) {
+		    e.handle();
+		    tick();
+		    break;
+		}
+
+		tick();
+
+		if (epoch != startEpoch || op == scratch)
+		    break;
+	    }
+	}
+    }
+
+    /**
+     * Run the basic block at the current PC once, compiled or not, without
+     * ticking, and complete any delayed load it leaves pending. Used by
+     * <tt>ProcessorTest</tt>; the block must not raise an exception.
+     *
+     * @param	compile	whether to compile the block before running it.
+     */
+    void runBlock(boolean compile) {
+	try {
+	    BasicBlock block =
+		new BasicBlock(translate(registers[regPC], 4, false));
+	    if (compile)
+		block.compile();
+
+	    for (int i=0; i<block.code.length; i++)
+		block.code[i].run();
+	}
+	catch (MipsException e) {
+	    Lib.assertNotReached("block raised " + exceptionNames[e.cause]);
+	}
+	finishLoad();
+    }
+
     /**
      * Read and return the contents of the specified CPU register.
      *
@@ -175,6 +425,7 @@ public final class Processor {
 	Lib.assertTrue(!usingTLB);
 
 	this.translations = pageTable;
+	invalidateTranslations();
     }
 
     /**
@@ -188,6 +439,123 @@ public final class Processor {
 	return tlbSize;
     }
 
+    /**
+     * Return the associativity of this processor's TLB. The TLB is divided
+     * into <tt>getTLBSize() / getTLBAssociativity()</tt> sets, and a virtual
+     * page can only be mapped by an entry in set <tt>vpn % </tt>(number of
+     * sets). Entries <tt>set*associativity</tt> through
+     * <tt>(set+1)*associativity - 1</tt> make up a set.
+     *
+     * @return	the number of entries in each set.
+     */
+    public int getTLBAssociativity() {
+	Lib.assertTrue(usingTLB);
+
+	return tlbAssociativity;
+    }
+
+    /**
+     * Return the current address space identifier.
+     *
+     * @return	the current ASID.
+     */
+    public int getASID() {
+	return asid;
+    }
+
+    /**
+     * Set the current address space identifier. TLB entries are tagged with
+     * the ASID that was current when they were written, and only match while
+     * it is current again, so a kernel that gives each address space its own
+     * ASID can switch between them without flushing the TLB.
+     *
+     * @param	asid	the new ASID, between 0 and <tt>numASIDs-1</tt>.
+     */
+    public void setASID(int asid) {
+	Lib.assertTrue(asid >= 0 && asid < numASIDs);
+
+	if (asid != this.asid) {
+	    this.asid = asid;
+	    invalidateTranslations();
+	}
+    }
+
+    /**
+     * Invalidate every TLB entry tagged with the specified ASID. A kernel
+     * must do this before reusing an ASID for a different address space.
+     *
+     * @param	asid	the ASID whose entries should be invalidated.
+     */
+    public void flushASID(int asid) {
+	Lib.assertTrue(usingTLB);
+
+	for (int i=0; i<tlbSize; i++) {
+	    if (translations[i].asid == asid)
+		translations[i].valid = false;
+	}
+
+	invalidateTranslations();
+    }
+
+    /**
+     * Set the page table base registers. While a page table is set, a TLB
+     * miss does not cause an exception; instead, the processor looks up the
+     * page in a two-level page table in physical memory and fills a TLB
+     * entry from it. The TLB is not flushed.
+     *
+     * <p>
+     * The first level is an array of <tt>length</tt> words at physical
+     * address <tt>paddr</tt>, indexed by <tt>vpn / ptesPerTable</tt>. Each
+     * valid first-level entry holds the physical page number of a
+     * second-level table, which fills that page and is indexed by
+     * <tt>vpn % ptesPerTable</tt>. Both levels use the same format: a
+     * physical page number shifted left by <tt>ptePPNShift</tt>, ORed with
+     * the <tt>pteZZZ</tt> flags. The processor sets the used bit of an entry
+     * when it loads the entry into the TLB, and the dirty bit the first time
+     * the page is written.
+     *
+     * <p>
+     * A first-level entry with the <tt>pteLarge</tt> flag maps a superpage of
+     * <tt>ptesPerTable</tt> pages starting at its physical page number, with
+     * no second-level table.
+     *
+     * <p>
+     * A miss on a page that is not in the table, or whose entries at either
+     * level are not valid, causes a page fault.
+     *
+     * @param	paddr	the physical address of the first-level table, or -1
+     *			to make TLB misses cause exceptions again.
+     * @param	length	the number of entries in the first-level table.
+     */
+    public void setPageTableBase(int paddr, int length) {
+	Lib.assertTrue(usingTLB);
+	Lib.assertTrue(paddr == -1 ||
+		       (paddr >= 0 && (paddr & 3) == 0 && length >= 0));
+
+	pageTableBase = paddr;
+	pageTableLength = length;
+    }
+
+    /**
+     * Return the physical address of the first-level page table used to
+     * fill the TLB, or -1 if there is none.
+     *
+     * @return	the page table base register.
+     */
+    public int getPageTableBase() {
+	return pageTableBase;
+    }
+
+    /**
+     * Return the number of entries in the first-level page table used to
+     * fill the TLB.
+     *
+     * @return	the page table length register.
+     */
+    public int getPageTableLength() {
+	return pageTableLength;
+    }
+
     /**
      * Returns the specified TLB entry.
      *
@@ -205,8 +573,18 @@ public final class Processor {
      * Fill the specified TLB entry.
      *
      * <p>
-     * The TLB is fully associative, so the location of an entry within the TLB
-     * does not affect anything.
+     * By default, the TLB is fully associative, so the location of an entry
+     * within the TLB does not affect anything. If the TLB is set-associative
+     * (see <tt>getTLBAssociativity()</tt>), a valid entry must be written to
+     * the set for its vpn, or it will never match.
+     *
+     * <p>
+     * The entry is tagged with the current ASID, whatever the ASID of
+     * <tt>entry</tt> is. A superpage entry is stored with its vpn and ppn
+     * rounded down to the start of the superpage, and belongs in set
+     * <tt>(vpn / numPages + log2(numPages)) % </tt>(number of sets), so that
+     * superpages of different sizes around the same address do not all
+     * compete for one set.
      *
      * @param	number	the index into the TLB.
      * @param	entry	the new contents of the TLB entry.
@@ -215,7 +593,156 @@ public final class Processor {
 	Lib.assertTrue(usingTLB);
 	Lib.assertTrue(number >= 0 && number < tlbSize);
 
+	int size = entry.numPages;
+	Lib.assertTrue(size > 0 && (size & (size-1)) == 0 &&
+		       ((entry.vpn ^ entry.ppn) & (size-1)) == 0,
+		       "bad superpage");
+
 	translations[number] = new TranslationEntry(entry);
+	translations[number].asid = asid;
+	translations[number].vpn &= -size;
+	translations[number].ppn &= -size;
+	tlbPageSizes |= size;
+	tlbPTEAddress[number] = -1;
+	tlbFilled(number);
+	invalidateTranslations();
+    }
+
+    /**
+     * Fill a TLB entry chosen by the hardware. The entry is placed in the
+     * set for its vpn, in an invalid entry if the set has one, or else in
+     * place of an entry chosen by the replacement policy in
+     * <tt>Processor.tlbReplacement</tt>, which must not be
+     * <tt>software</tt>.
+     *
+     * @param	entry	the new contents of the TLB entry.
+     * @return	the index of the TLB entry that was filled.
+     */
+    public int writeTLBEntry(TranslationEntry entry) {
+	Lib.assertTrue(usingTLB);
+	Lib.assertTrue(tlbReplacement != tlbSoftware,
+		       "TLB replacement is software-managed");
+
+	return fillTLB(entry);
+    }
+
+    /**
+     * Fill a TLB entry chosen by the hardware, as described for
+     * <tt>writeTLBEntry(TranslationEntry)</tt>. If replacement is
+     * software-managed, the entry to replace is chosen at random.
+     */
+    private int fillTLB(TranslationEntry entry) {
+	int shift = Integer.numberOfTrailingZeros(entry.numPages);
+	int base = (((entry.vpn >>> shift) + shift) % tlbSets) * tlbAssociativity;
+	int number = -1;
+
+	for (int i=base; i<base+tlbAssociativity; i++) {
+	    if (!translations[i].valid) {
+		number = i;
+		break;
+	    }
+	}
+
+	if (number == -1) {
+	    number = base + chooseVictim(base);
+	    privilege.stats.numTLBEvictions++;
+	}
+
+	writeTLBEntry(number, entry);
+	return number;
+    }
+
+    /**
+     * Choose an entry to replace in the TLB set starting at the specified
+     * index, according to the replacement policy.
+     *
+     * @param	base	the index of the first entry in the set.
+     * @return	the way to replace, relative to <tt>base</tt>.
+     */
+    private int chooseVictim(int base) {
+	switch (tlbReplacement) {
+	case tlbSoftware:
+	case tlbRandom:
+	    return Lib.random(tlbAssociativity);
+
+	case tlbFIFO:
+	case tlbLRU:
+	    // FIFO stamps entries when filled, LRU whenever they are used
+	    int oldest = 0;
+	    for (int i=1; i<tlbAssociativity; i++) {
+		if (tlbStamps[base+i] < tlbStamps[base+oldest])
+		    oldest = i;
+	    }
+	    return oldest;
+
+	default:
+	    // follow the tree bits, which point away from recent uses
+	    int bits = tlbTree[base / tlbAssociativity];
+	    int node = 1, way = 0;
+	    while (node < tlbAssociativity) {
+		int direction = (bits >>> node) & 1;
+		way = way*2 + direction;
+		node = node*2 + direction;
+	    }
+	    return way;
+	}
+    }
+
+    /**
+     * Update the replacement state after a TLB entry is filled.
+     */
+    private void tlbFilled(int number) {
+	tlbStamps[number] = ++tlbClock;
+
+	if (tlbReplacement == tlbPLRU)
+	    tlbTouch(number);
+    }
+
+    /**
+     * Update the replacement state and statistics after a TLB hit.
+     */
+    private void tlbHit(int number) {
+	privilege.stats.numTLBHits++;
+
+	if (tlbReplacement == tlbLRU)
+	    tlbStamps[number] = ++tlbClock;
+	else if (tlbReplacement == tlbPLRU)
+	    tlbTouch(number);
+    }
+
+    /**
+     * Point every node of the pseudo-LRU tree on the path to the specified
+     * entry away from it.
+     */
+    private void tlbTouch(int number) {
+	int set = number / tlbAssociativity;
+	int way = number % tlbAssociativity;
+	int bits = tlbTree[set];
+
+	int node = 1;
+	for (int half=tlbAssociativity/2; half>0; half/=2) {
+	    int direction = (way & half) != 0 ? 1 : 0;
+
+	    if (direction == 0)
+		bits |= (1 << node);
+	    else
+		bits &= ~(1 << node);
+
+	    node = node*2 + direction;
+	}
+
+	tlbTree[set] = bits;
+    }
+
+    /**
+     * Discard any translations the processor has remembered. The processor
+     * does this itself whenever the page table or TLB is replaced, and
+     * whenever the kernel is entered through an interrupt or exception, so
+     * a kernel only needs to call this if it changes a translation entry
+     * in the current page table from some other context.
+     */
+    public void invalidateTranslations() {
+	translationGeneration++;
     }
 
     /**
@@ -232,12 +759,47 @@ public final class Processor {
      * Return a reference to the physical memory array. The size of this array
      * is <tt>pageSize * getNumPhysPages()</tt>.
      *
+     * <p>
+     * A kernel that modifies this array directly must call
+     * <tt>invalidatePage()</tt> for every physical page it changes, or the
+     * processor may keep executing stale instructions from that page.
+     *
      * @return	the main memory array.
      */
     public byte[] getMemory() {
 	return mainMemory;
     }
 
+    /**
+     * Notify this processor that the contents of the specified physical page
+     * were modified by something other than a user store instruction (for
+     * example, by a kernel copying data into user memory). Any instructions
+     * previously decoded from that page are discarded.
+     *
+     * @param	ppn	the physical page that was modified.
+     */
+    public void invalidatePage(int ppn) {
+	Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+	dropDecodedPage(ppn);
+    }
+
+    /**
+     * Discard any decoded instructions or basic blocks for the specified
+     * physical page.
+     *
+     * @param	ppn	the physical page that was modified.
+     */
+    private void dropDecodedPage(int ppn) {
+	if (decodeCache != null)
+	    decodeCache[ppn] = null;
+
+	if (blockCache != null && blockCache[ppn] != null) {
+	    blockCache[ppn] = null;
+	    epoch++;
+	}
+    }
+
     /**
      * Concatenate a page number and an offset into an address.
      *
@@ -294,6 +856,24 @@ public final class Processor {
      */
     private int translate(int vaddr, int size, boolean writing)
 	throws MipsException {
+	if (cachedVPN != null && (vaddr & (size-1)) == 0) {
+	    int vpn = pageFromAddress(vaddr);
+	    int slot = vpn & (cachedVPN.length-1);
+	    
+	    if (cachedVPN[slot] == vpn &&
+		cachedGeneration[slot] == translationGeneration &&
+		(cachedWritable[slot] || !writing)) {
+		TranslationEntry entry = cachedEntry[slot];
+		if (usingTLB)
+		    tlbHit(cachedTLBIndex[slot]);
+		entry.used = true;
+		if (writing)
+		    entry.dirty = true;
+
+		return cachedBase[slot] + offsetFromAddress(vaddr);
+	    }
+	}
+
 	if (Lib.test(dbgProcessor))
 	    System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
 			       + (writing ? ", write" : ", read..."));
@@ -309,6 +889,7 @@ public final class Processor {
 	int offset = offsetFromAddress(vaddr);
 
 	TranslationEntry entry = null;
+	int tlbIndex = -1;
 
 	// if not using a TLB, then the vpn is an index into the table
 	if (!usingTLB) {
@@ -322,19 +903,47 @@ public final class Processor {
 
 	    entry = translations[vpn];
 	}
-	// else, look through all TLB entries for matching vpn
+	// else, look through the TLB entries in vpn's set for a match
 	else {
-	    for (int i=0; i<tlbSize; i++) {
-		if (translations[i].valid && translations[i].vpn == vpn) {
-		    entry = translations[i];
-		    break;
+	    // probe the set for each page size that has been put in the TLB
+	    int sizes = (tlbSets == 1) ? 1 : tlbPageSizes;
+	    search:
+	    for (int shift=0; sizes != 0; shift++, sizes >>>= 1) {
+		if ((sizes & 1) == 0)
+		    continue;
+
+		int base = (((vpn >>> shift) + shift) % tlbSets) *
+		    tlbAssociativity;
+		for (int i=base; i<base+tlbAssociativity; i++) {
+		    if (translations[i].valid &&
+			(vpn & -translations[i].numPages) == translations[i].vpn &&
+			translations[i].asid == asid) {
+			entry = translations[i];
+			tlbIndex = i;
+			break search;
+		    }
 		}
 	    }
 	    if (entry == null) {
 		privilege.stats.numTLBMisses++;
-		Lib.debug(dbgProcessor, "\t\tTLB miss");
-		throw new MipsException(exceptionTLBMiss, vaddr);
+		if (pageTableBase == -1) {
+		    Lib.debug(dbgProcessor, "\t\tTLB miss");
+		    throw new MipsException(exceptionTLBMiss, vaddr);
+		}
+
+		Lib.debug(dbgProcessor, "\t\tTLB miss, walking page table");
+		tlbIndex = walkPageTable(vaddr, writing);
+		entry = translations[tlbIndex];
 	    }
+	    else {
+		tlbHit(tlbIndex);
+	    }
+
+	    // the first write to a page sets the dirty bit in its PTE
+	    if (writing && !entry.dirty && !entry.readOnly &&
+		tlbPTEAddress[tlbIndex] != -1)
+		writePTE(tlbPTEAddress[tlbIndex],
+			 memory.getInt(tlbPTEAddress[tlbIndex]) | pteDirty);
 	}
 
 	// check if trying to write a read-only page
@@ -343,8 +952,12 @@ public final class Processor {
 	    throw new MipsException(exceptionReadOnly, vaddr);
 	}
 
-	// check if physical page number is out of range
+	// a page table entry maps one page; a TLB entry may map a superpage
 	int ppn = entry.ppn;
+	if (usingTLB)
+	    ppn = (ppn & -entry.numPages) + (vpn & (entry.numPages-1));
+
+	// check if physical page number is out of range
 	if (ppn < 0 || ppn >= numPhysPages) {
 	    Lib.debug(dbgProcessor, "\t\tbad ppn");
 	    throw new MipsException(exceptionBusError, vaddr);
@@ -357,11 +970,104 @@ public final class Processor {
 
 	int paddr = (ppn*pageSize) + offset;
 
+	if (cachedVPN != null) {
+	    int slot = vpn & (cachedVPN.length-1);
+	    cachedVPN[slot] = vpn;
+	    cachedBase[slot] = ppn*pageSize;
+	    cachedGeneration[slot] = translationGeneration;
+	    // a clean page filled by the walker must take the slow path
+	    cachedWritable[slot] = !entry.readOnly &&
+		(entry.dirty || tlbIndex == -1 || tlbPTEAddress[tlbIndex] == -1);
+	    cachedEntry[slot] = entry;
+	    cachedTLBIndex[slot] = tlbIndex;
+	}
+
 	if (Lib.test(dbgProcessor))
 	    System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));	
 	return paddr;
     }
 
+    /**
+     * Fill a TLB entry for the page containing <i>vaddr</i> from the page
+     * table in memory.
+     *
+     * @param	vaddr	the virtual address that missed in the TLB.
+     * @param	writing	<tt>true</tt> if the access was a write.
+     * @return	the index of the TLB entry that was filled.
+     * @exception	MipsException	if the page is not mapped.
+     */
+    private int walkPageTable(int vaddr, boolean writing)
+	throws MipsException {
+	privilege.stats.numTLBWalks++;
+
+	int vpn = pageFromAddress(vaddr);
+	int index = vpn / ptesPerTable;
+
+	int pdeAddress = pageTableBase + index*4;
+	int pde = 0;
+	if (index < pageTableLength)
+	    pde = readPTE(pdeAddress, vaddr);
+
+	int pteAddress, pte = 0, size = 1;
+
+	// a first-level entry can map a superpage of ptesPerTable pages
+	if ((pde & (pteValid|pteLarge)) == (pteValid|pteLarge)) {
+	    pteAddress = pdeAddress;
+	    pte = pde;
+	    size = ptesPerTable;
+	}
+	else {
+	    pteAddress = (pde >>> ptePPNShift)*pageSize + (vpn%ptesPerTable)*4;
+	    if ((pde & pteValid) != 0)
+		pte = readPTE(pteAddress, vaddr);
+	}
+
+	if ((pte & pteValid) == 0) {
+	    privilege.stats.numPageFaults++;
+	    Lib.debug(dbgProcessor, "\t\tpage fault");
+	    throw new MipsException(exceptionPageFault, vaddr);
+	}
+
+	int updated = pte | pteUsed;
+	if (writing && (pte & pteReadOnly) == 0)
+	    updated |= pteDirty;
+	if (updated != pte)
+	    writePTE(pteAddress, updated);
+
+	TranslationEntry entry =
+	    new TranslationEntry(vpn & -size,
+				 (updated >>> ptePPNShift) & -size, true,
+				 (updated & pteReadOnly) != 0,
+				 (updated & pteUsed) != 0,
+				 (updated & pteDirty) != 0);
+	entry.numPages = size;
+
+	int number = fillTLB(entry);
+	tlbPTEAddress[number] = pteAddress;
+
+	return number;
+    }
+
+    /**
+     * Read a page table entry from physical memory.
+     */
+    private int readPTE(int paddr, int vaddr) throws MipsException {
+	if (paddr < 0 || paddr > mainMemory.length-4) {
+	    Lib.debug(dbgProcessor, "\t\tbad page table address");
+	    throw new MipsException(exceptionBusError, vaddr);
+	}
+
+	return memory.getInt(paddr);
+    }
+
+    /**
+     * Write a page table entry back to physical memory.
+     */
+    private void writePTE(int paddr, int pte) {
+	memory.putInt(paddr, pte);
+	dropDecodedPage(paddr / pageSize);
+    }
+
     /**
      * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
      * and return the result.
@@ -378,8 +1084,21 @@ public final class Processor {
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
 	
-	int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false),
-				   size);
+	int paddr = translate(vaddr, size, false);
+	int value;
+
+	// translate() checked alignment, so each access is a single load
+	switch (size) {
+	case 1:
+	    value = mainMemory[paddr];
+	    break;
+	case 2:
+	    value = memory.getShort(paddr);
+	    break;
+	default:
+	    value = memory.getInt(paddr);
+	    break;
+	}
 
 	if (Lib.test(dbgProcessor))
 	    System.out.println("\t\tvalue read=0x" +
@@ -405,9 +1124,85 @@ public final class Processor {
 			       + Lib.toHexString(value, size*2));
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
-	
-	Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size,
-			 value);
+
+	int paddr = translate(vaddr, size, true);
+
+	switch (size) {
+	case 1:
+	    mainMemory[paddr] = (byte) value;
+	    break;
+	case 2:
+	    memory.putShort(paddr, (short) value);
+	    break;
+	default:
+	    memory.putInt(paddr, value);
+	    break;
+	}
+
+	// the store might have overwritten code we already decoded
+	dropDecodedPage(paddr/pageSize);
+    }
+
+    /**
+     * Fetch the instruction at the current PC and return it decoded. If the
+     * decode cache is disabled, <i>scratch</i> is decoded in place and
+     * returned. Otherwise, the decoded instruction is taken from the cache
+     * entry for its physical page, decoding it first if necessary.
+     *
+     * @param	scratch	the instruction to decode into if there is no decode
+     *			cache.
+     * @return	the decoded instruction at the current PC.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private Instruction fetch(Instruction scratch) throws MipsException {
+	if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
+	    Lib.test(dbgFullDisassemble))
+	    System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
+			     + "\t");
+
+	if (decodeCache == null) {
+	    scratch.decode(readMem(registers[regPC], 4));
+	    return scratch;
+	}
+
+	int paddr = translate(registers[regPC], 4, false);
+
+	Instruction[] page = decodeCache[paddr/pageSize];
+	if (page == null) {
+	    page = new Instruction[pageSize/4];
+	    decodeCache[paddr/pageSize] = page;
+	}
+
+	int index = (paddr%pageSize) / 4;
+	if (page[index] == null) {
+	    page[index] = new Instruction();
+	    page[index].decode(memory.getInt(paddr));
+	}
+
+	return page[index];
+    }
+
+    /**
+     * Fetch the basic block starting at the current PC, building it first if
+     * it is not already in the block cache.
+     *
+     * @return	the basic block starting at the current PC.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private BasicBlock fetchBlock() throws MipsException {
+	int paddr = translate(registers[regPC], 4, false);
+
+	BasicBlock[] page = blockCache[paddr/pageSize];
+	if (page == null) {
+	    page = new BasicBlock[pageSize/4];
+	    blockCache[paddr/pageSize] = page;
+	}
+
+	int index = (paddr%pageSize) / 4;
+	if (page[index] == null)
+	    page[index] = new BasicBlock(paddr);
+
+	return page[index];
     }
 
     /**
@@ -523,6 +1318,26 @@ public final class Processor {
 
     /** The total number of software-accessible CPU registers. */
     public static final int numUserRegisters = 38;
+    /** PTE flag: the entry is valid. */
+    public static final int pteValid = 0x1;
+    /** PTE flag: the page is read-only. */
+    public static final int pteReadOnly = 0x2;
+    /** PTE flag: the page has been used since the flag was cleared. */
+    public static final int pteUsed = 0x4;
+    /** PTE flag: the page has been written since the flag was cleared. */
+    public static final int pteDirty = 0x8;
+    /**
+     * PTE flag, in a first-level entry only: the entry maps a superpage of
+     * <tt>ptesPerTable</tt> pages directly, instead of pointing to a
+     * second-level table.
+     */
+    public static final int pteLarge = 0x10;
+    /** The physical page number in a PTE is shifted left by this much. */
+    public static final int ptePPNShift = 12;
+    /** The number of PTEs in a second-level page table, which fills a page. */
+    public static final int ptesPerTable = Processor.pageSize / 4;
+    /** The number of distinct address space identifiers. */
+    public static final int numASIDs = 256;
 
     /** Provides privilege to this processor. */
     private Privilege privilege;
@@ -537,10 +1352,43 @@ public final class Processor {
     /** The value to be loaded by the delayed load currently in progress. */
     private int loadValue;
 
+    /** The current address space identifier. */
+    private int asid = 0;
+
+    /** The physical address of the first-level page table, or -1. */
+    private int pageTableBase = -1;
+    /** The number of entries in the first-level page table. */
+    private int pageTableLength = 0;
+
     /** <tt>true</tt> if using a software-managed TLB. */
     private boolean usingTLB;
     /** Number of TLB entries. */
     private int tlbSize = 4;
+    /** The number of TLB entries in each set. */
+    private int tlbAssociativity;
+    /** The number of sets in the TLB. */
+    private int tlbSets;
+    /** How <tt>writeTLBEntry(TranslationEntry)</tt> picks an entry. */
+    private int tlbReplacement;
+    /** When each TLB entry was filled (FIFO) or last used (LRU). */
+    private long[] tlbStamps;
+    /** Incremented to stamp TLB entries. */
+    private long tlbClock = 0;
+    /**
+     * The physical address of the PTE each TLB entry was filled from by the
+     * page table walker, or -1 if the kernel wrote the entry.
+     */
+    private int[] tlbPTEAddress;
+    /** Every superpage size that has been written to the TLB, ORed together. */
+    private int tlbPageSizes = 1;
+    /** The pseudo-LRU tree of each set, one bit per node, root at bit 1. */
+    private int[] tlbTree;
+
+    private static final int tlbSoftware = 0;
+    private static final int tlbRandom = 1;
+    private static final int tlbFIFO = 2;
+    private static final int tlbLRU = 3;
+    private static final int tlbPLRU = 4;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
@@ -555,6 +1403,55 @@ public final class Processor {
     private int numPhysPages;
     /** Main memory for user programs. */
     private byte[] mainMemory;
+    /** A little-endian view of <tt>mainMemory</tt>, for word accesses. */
+    private ByteBuffer memory;
+    /**
+     * Instructions already decoded from each physical page, indexed by page
+     * and then by word within the page, or <tt>null</tt> if decoded
+     * instructions are not cached. A page's entry is dropped whenever the
+     * page is written.
+     */
+    private Instruction[][] decodeCache;
+    /**
+     * Basic blocks already built from each physical page, indexed like
+     * <tt>decodeCache</tt>, or <tt>null</tt> if using the interpreter.
+     */
+    private BasicBlock[][] blockCache = null;
+    /** The user program profiler, or <tt>null</tt> if not profiling. */
+    private Profiler profiler;
+    /** The binary trace recorder, or <tt>null</tt> if not tracing. */
+    private Tracer tracer;
+    /** Whether to batch up ticks in between interrupts. */
+    private boolean batchTicks;
+    /**
+     * The number of calls to <tt>tick()</tt> that can be counted without
+     * checking for pending interrupts.
+     */
+    private int skippableTicks = 0;
+    /** Ticks counted but not yet added to the statistics. */
+    private int skippedTicks = 0;
+    /**
+     * Recently used translations, indexed by the low bits of the vpn, or
+     * <tt>null</tt> if translations are not cached. A slot is only valid if
+     * its generation matches <tt>translationGeneration</tt>.
+     */
+    private int[] cachedVPN = null, cachedBase, cachedGeneration;
+    private boolean[] cachedWritable;
+    private TranslationEntry[] cachedEntry;
+    private int[] cachedTLBIndex;
+    /** Incremented to discard every cached translation at once. */
+    private int translationGeneration = 0;
+    /**
+     * The number of times a basic block must be entered before it is
+     * compiled, or 0 if blocks are never compiled.
+     */
+    private int jitThreshold = 0;
+    /**
+     * Incremented whenever something happens that a basic block in progress
+     * cannot see coming: an interrupt handler running, or a change to the
+     * page the block was built from.
+     */
+    private int epoch = 0;
 
     /** The kernel exception handler, called on every user exception. */
     private Runnable exceptionHandler = null;
@@ -566,6 +1463,9 @@ public final class Processor {
     private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 	public void flushPipe() {
 	    finishLoad();
+	    epoch++;
+	    // the interrupt handler might change the page table
+	    invalidateTranslations();
 	}
     }
 
@@ -584,8 +1484,17 @@ public final class Processor {
 	}
 
 	public void handle() {
+	    // the kernel might look at the time, or switch to another thread
+	    flushTicks();
+	    skippableTicks = 0;
+	    
 	    writeRegister(regCause, cause);
 
+	    if (profiler != null)
+		profiler.exception(registers[regPC], cause);
+	    if (tracer != null)
+		tracer.exception(registers[regPC], cause, badVAddr);
+
 	    if (hasBadVAddr)
 		writeRegister(regBadVAddr, badVAddr);
 
@@ -593,6 +1502,7 @@ public final class Processor {
 		System.out.println("exception: " + exceptionNames[cause]);
 
 	    finishLoad();
+	    invalidateTranslations();
 
 	    Lib.assertTrue(exceptionHandler != null);
 
@@ -607,11 +1517,26 @@ public final class Processor {
 	private int cause, badVAddr;
     }	
 
-    private class Instruction {
+    /**
+     * Something that can be run in place of one MIPS instruction: either a
+     * fully general decoded instruction or a compiled operation.
+     */
+    private abstract class Op {
+	/**
+	 * Run this operation, which must leave the processor in exactly the
+	 * state the corresponding instruction would have.
+	 */
+	public abstract void run() throws MipsException;
+    }
+
+    private class Instruction extends Op {
+	/**
+	 * Run this instruction, which must already have been fetched and
+	 * decoded.
+	 */
 	public void run() throws MipsException {
 	    // hopefully this looks familiar to 152 students?
-	    fetch();
-	    decode();
+	    readOperands();
 	    execute();
 	    writeBack();
 	}	
@@ -620,16 +1545,38 @@ public final class Processor {
 	    return Lib.test(flag, flags);
 	}
 
-	private void fetch() throws MipsException {
-	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
-		Lib.test(dbgFullDisassemble))
-		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
-				 + "\t");
+	/**
+	 * Test whether a basic block must end after this instruction (or, for
+	 * a branch, after its delay slot).
+	 *
+	 * @return	<tt>true</tt> if this instruction ends a basic block.
+	 */
+	public boolean endsBlock() {
+	    return (test(Mips.BRANCH) || operation == Mips.SYSCALL ||
+		    operation == Mips.UNIMPL || operation == Mips.INVALID);
+	}
 
-	    value = readMem(registers[regPC], 4);
+	/**
+	 * Test whether this instruction reads or writes memory.
+	 *
+	 * @return	<tt>true</tt> if this instruction accesses memory.
+	 */
+	public boolean accessesMemory() {
+	    return (operation == Mips.LOAD || operation == Mips.STORE ||
+		    operation == Mips.LWL || operation == Mips.LWR ||
+		    operation == Mips.SWL || operation == Mips.SWR);
 	}
-	
-	private void decode() {
+
+	/**
+	 * Decode the parts of an instruction word that do not depend on the
+	 * contents of any register, so that they can be reused every time
+	 * this instruction is run.
+	 *
+	 * @param	value	the instruction word.
+	 */
+	public void decode(int value) {
+	    this.value = value;
+	    
 	    op = Lib.extract(value, 26, 6);
 	    rs = Lib.extract(value, 21, 5);
 	    rt = Lib.extract(value, 16, 5);
@@ -656,9 +1603,6 @@ public final class Processor {
 	    name = info.name;
 	    format = info.format;
 	    flags = info.flags;
-
-	    mask = 0xFFFFFFFF;	
-	    branch = true;
 	
 	    // get memory access size
 	    if (test(Mips.SIZEB))
@@ -670,9 +1614,6 @@ public final class Processor {
 	    else
 		size = 0;
 
-	    // get nextPC
-	    nextPC = registers[regNextPC]+4;
-
 	    // get dstReg
 	    if (test(Mips.DSTRA))
 		dstReg = regRA;
@@ -683,21 +1624,36 @@ public final class Processor {
 	    else
 		dstReg = -1;
 
+	    // get branch offset, before imm is masked below
+	    offset = imm<<2;
+
+	    // get imm
+	    if (test(Mips.UNSIGNED)) {
+		imm &= 0xFFFF;
+	    }
+	}
+
+	/**
+	 * Read the register operands of this instruction, which may differ
+	 * every time it runs.
+	 */
+	private void readOperands() {
+	    mask = 0xFFFFFFFF;	
+	    branch = true;
+
+	    // get nextPC
+	    nextPC = registers[regNextPC]+4;
+
 	    // get jtarget
 	    if (format == Mips.RFMT)
 		jtarget = registers[rs];
 	    else if (format == Mips.IFMT)
-		jtarget = registers[regNextPC] + (imm<<2);
+		jtarget = registers[regNextPC] + offset;
 	    else if (format == Mips.JFMT)
 		jtarget = (registers[regNextPC]&0xF0000000) | (target<<2);
 	    else
 		jtarget = -1;
 
-	    // get imm
-	    if (test(Mips.UNSIGNED)) {
-		imm &= 0xFFFF;
-	    }
-
 	    // get addr
 	    addr = registers[rs] + imm;
 
@@ -880,7 +1836,8 @@ public final class Processor {
 		dst = src2 >> (src1&0x1F);
 		break;
 	    case Mips.SRL:
-		dst = src2 >>> (src1&0x1F);
+		// src2 is sign-extended, so shift in zeroes from bit 31
+		dst = (src2 & 0xFFFFFFFFL) >>> (src1&0x1F);
 		break;
 
 	    case Mips.SLT:
@@ -1051,18 +2008,316 @@ public final class Processor {
 		System.out.print("\n");
 	}
     
-	// state used to execute a single instruction
-	int value, op, rs, rt, rd, sh, func, target, imm;
+	// decoded once, when the instruction is first fetched
+	int value, op, rs, rt, rd, sh, func, target, imm, offset;
 	int operation, format, flags;
 	String name;
+	int size, dstReg;
 
-	int size;
-	int addr, nextPC, jtarget, dstReg;
+	// state used to execute a single instruction
+	int addr, nextPC, jtarget;
 	long src1, src2, dst;
 	int mask;	
 	boolean branch;
     }
 
+    /**
+     * A straight-line run of decoded instructions within one physical page,
+     * ending with a branch and its delay slot, an instruction that always
+     * traps, or the end of the page.
+     */
+    private class BasicBlock {
+	/**
+	 * Decode the basic block starting at the specified physical address.
+	 *
+	 * @param	paddr	the physical address of the first instruction.
+	 */
+	BasicBlock(int paddr) {
+	    this.paddr = paddr;
+
+	    int end = (paddr/pageSize + 1) * pageSize;
+	    boolean delaySlot = false;
+
+	    ArrayList<Op> list = new ArrayList<Op>();
+
+	    for (; paddr < end; paddr += 4) {
+		Instruction inst = new Instruction();
+		inst.decode(memory.getInt(paddr));
+		list.add(inst);
+
+		if (delaySlot)
+		    break;
+		
+		if (inst.endsBlock()) {
+		    if (!inst.test(Mips.BRANCH))
+			break;
+		    delaySlot = true;
+		}
+	    }
+
+	    code = list.toArray(new Op[list.size()]);
+	}
+
+	/**
+	 * Replace each instruction in this block with a compiled operation, if
+	 * one exists for it.
+	 */
+	void compile() {
+	    for (int i=0; i<code.length; i++)
+		code[i] = compileInstruction((Instruction) code[i]);
+
+	    compiled = true;
+	}
+
+	/** The physical address of the first instruction. */
+	final int paddr;
+	/** The instructions in this block, in order. */
+	Op[] code;
+	/** The number of times this block has been entered. */
+	int entries = 0;
+	/** Whether <tt>compile()</tt> has been called. */
+	boolean compiled = false;
+    }
+
+    /**
+     * Compile a decoded instruction into an operation specialized for its
+     * opcode and register numbers, so that running it skips the operand
+     * selection and flag tests in <tt>Instruction</tt>. Instructions that
+     * are rare, or that can raise an overflow exception, are returned
+     * unchanged.
+     *
+     * <p>
+     * Every compiled operation reads its operands before completing any
+     * pending delayed load, and raises any exception before changing any
+     * register, just as <tt>Instruction.run()</tt> does, so exceptions
+     * remain precise.
+     *
+     * @param	inst	the decoded instruction.
+     * @return	an operation equivalent to <tt>inst</tt>.
+     */
+    private Op compileInstruction(final Instruction inst) {
+	final int rs = inst.rs, rt = inst.rt, rd = inst.rd, sh = inst.sh;
+	final int imm = inst.imm, offset = inst.offset;
+	final boolean rtype = (inst.format == Mips.RFMT);
+
+	switch (inst.operation) {
+	case Mips.ADD:
+	    if (inst.test(Mips.OVERFLOW))
+		break;
+	    if (rtype)
+		return new Op() {
+			public void run() {
+			    retire(rd, registers[rs] + registers[rt]);
+			}
+		    };
+	    else
+		return new Op() {
+			public void run() {
+			    retire(rt, registers[rs] + imm);
+			}
+		    };
+	case Mips.SUB:
+	    if (inst.test(Mips.OVERFLOW))
+		break;
+	    return new Op() {
+		    public void run() {
+			retire(rd, registers[rs] - registers[rt]);
+		    }
+		};
+	case Mips.AND:
+	    if (rtype)
+		return new Op() {
+			public void run() {
+			    retire(rd, registers[rs] & registers[rt]);
+			}
+		    };
+	    else
+		return new Op() {
+			public void run() {
+			    retire(rt, registers[rs] & imm);
+			}
+		    };
+	case Mips.OR:
+	    if (rtype)
+		return new Op() {
+			public void run() {
+			    retire(rd, registers[rs] | registers[rt]);
+			}
+		    };
+	    else
+		return new Op() {
+			public void run() {
+			    retire(rt, registers[rs] | imm);
+			}
+		    };
+	case Mips.XOR:
+	    if (rtype)
+		return new Op() {
+			public void run() {
+			    retire(rd, registers[rs] ^ registers[rt]);
+			}
+		    };
+	    else
+		return new Op() {
+			public void run() {
+			    retire(rt, registers[rs] ^ imm);
+			}
+		    };
+	case Mips.NOR:
+	    return new Op() {
+		    public void run() {
+			retire(rd, ~(registers[rs] | registers[rt]));
+		    }
+		};
+	case Mips.LUI:
+	    return new Op() {
+		    public void run() {
+			retire(rt, imm << 16);
+		    }
+		};
+	case Mips.SLT:
+	    // unsigned comparisons see the immediate zero-extended, just as
+	    // Instruction does
+	    if (inst.test(Mips.UNSIGNED)) {
+		if (rtype)
+		    return new Op() {
+			    public void run() {
+				retire(rd, ((registers[rs]^0x80000000) <
+					    (registers[rt]^0x80000000)) ? 1:0);
+			    }
+			};
+		else
+		    return new Op() {
+			    public void run() {
+				retire(rt, ((registers[rs]^0x80000000) <
+					    (imm^0x80000000)) ? 1 : 0);
+			    }
+			};
+	    }
+	    if (rtype)
+		return new Op() {
+			public void run() {
+			    retire(rd, (registers[rs] < registers[rt]) ? 1 : 0);
+			}
+		    };
+	    else
+		return new Op() {
+			public void run() {
+			    retire(rt, (registers[rs] < imm) ? 1 : 0);
+			}
+		    };
+	case Mips.SLL:
+	    if (!inst.test(Mips.SRC1SH))
+		break;
+	    return new Op() {
+		    public void run() {
+			retire(rd, registers[rt] << sh);
+		    }
+		};
+	case Mips.SRL:
+	    if (!inst.test(Mips.SRC1SH))
+		break;
+	    return new Op() {
+		    public void run() {
+			retire(rd, registers[rt] >>> sh);
+		    }
+		};
+	case Mips.SRA:
+	    if (!inst.test(Mips.SRC1SH))
+		break;
+	    return new Op() {
+		    public void run() {
+			retire(rd, registers[rt] >> sh);
+		    }
+		};
+	case Mips.LOAD:
+	    if (inst.size != 4)
+		break;
+	    return new Op() {
+		    public void run() throws MipsException {
+			int value = readMem(registers[rs] + imm, 4);
+			delayedLoad(rt, value, 0xFFFFFFFF);
+			advancePC(registers[regNextPC]+4);
+		    }
+		};
+	case Mips.STORE:
+	    if (inst.size != 4)
+		break;
+	    return new Op() {
+		    public void run() throws MipsException {
+			writeMem(registers[rs] + imm, 4, registers[rt]);
+			retire(0, 0);
+		    }
+		};
+	case Mips.BEQ:
+	    return new Op() {
+		    public void run() {
+			boolean taken = (registers[rs] == registers[rt]);
+			jump(taken ? registers[regNextPC] + offset :
+			     registers[regNextPC] + 4);
+		    }
+		};
+	case Mips.BNE:
+	    return new Op() {
+		    public void run() {
+			boolean taken = (registers[rs] != registers[rt]);
+			jump(taken ? registers[regNextPC] + offset :
+			     registers[regNextPC] + 4);
+		    }
+		};
+	case Mips.JUMP:
+	    if (inst.format == Mips.JFMT) {
+		final int target = inst.target << 2;
+		final int link = inst.test(Mips.LINK) ? regRA : 0;
+		return new Op() {
+			public void run() {
+			    int nextPC = registers[regNextPC];
+			    finishLoad();
+			    if (link != 0)
+				registers[link] = nextPC + 4;
+			    advancePC((nextPC & 0xF0000000) | target);
+			}
+		    };
+	    }
+	    if (inst.test(Mips.LINK))
+		break;
+	    return new Op() {
+		    public void run() {
+			jump(registers[rs]);
+		    }
+		};
+	}
+
+	return inst;
+    }
+
+    /**
+     * Finish a compiled non-branch operation: complete any pending delayed
+     * load, write the result, and advance the PC.
+     *
+     * @param	dstReg	the destination register, or 0 if none.
+     * @param	value	the result.
+     */
+    private void retire(int dstReg, int value) {
+	finishLoad();
+
+	if (dstReg != 0)
+	    registers[dstReg] = value;
+
+	advancePC(registers[regNextPC]+4);
+    }
+
+    /**
+     * Finish a compiled branch operation: complete any pending delayed load
+     * and set the target of the branch.
+     *
+     * @param	nextPC	the PC after the delay slot.
+     */
+    private void jump(int nextPC) {
+	finishLoad();
+	advancePC(nextPC);
+    }
+
     private static class Mips {
 	Mips() {
 	}
@@ -0,0 +1,112 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+/**
+ * Tests that compiled basic blocks leave the same state as the interpreter,
+ * by running a short program that shifts and stores negative values once
+ * instruction by instruction and once compiled.
+ */
+public final class ProcessorTest {
+    /**
+     * Allocate a new <tt>ProcessorTest</tt> object.
+     */
+    public ProcessorTest() {
+    }
+
+    /**
+     * Run a test on <tt>Machine.processor()</tt>. The program runs at virtual
+     * and physical address 0 under a temporary page table, and everything it
+     * changes is put back afterwards. Does nothing if the processor has a
+     * TLB.
+     */
+    public void run() {
+	Processor processor = Machine.processor();
+	if (processor.hasTLB())
+	    return;
+
+	byte[] memory = processor.getMemory();
+
+	TranslationEntry[] savedPageTable = processor.getPageTable();
+	int[] savedRegisters = new int[Processor.numUserRegisters];
+	for (int i=0; i<savedRegisters.length; i++)
+	    savedRegisters[i] = processor.readRegister(i);
+	byte[] savedPage = new byte[Processor.pageSize];
+	System.arraycopy(memory, 0, savedPage, 0, savedPage.length);
+
+	for (int i=0; i<program.length; i++)
+	    Lib.bytesFromInt(memory, i*4, program[i]);
+	processor.invalidatePage(0);
+
+	processor.setPageTable(new TranslationEntry[] {
+	    new TranslationEntry(0, 0, true, false, false, false) });
+
+	int[] interpreted = runBlock(false);
+	int[] compiled = runBlock(true);
+
+	for (int i=0; i<interpreted.length; i++)
+	    Lib.assertTrue(interpreted[i] == compiled[i],
+			   "compiled block differs at word " + i);
+
+	// srl must shift zeroes in, not copies of the sign bit
+	Lib.assertTrue(interpreted[8] == 0x7FFFFFFC && interpreted[9] == 1);
+
+	System.arraycopy(savedPage, 0, memory, 0, savedPage.length);
+	processor.invalidatePage(0);
+	for (int i=0; i<savedRegisters.length; i++)
+	    processor.writeRegister(i, savedRegisters[i]);
+	processor.setPageTable(savedPageTable);
+    }
+
+    /**
+     * Run the program as one basic block, compiled or not, and return the
+     * registers followed by the words it stored.
+     */
+    private int[] runBlock(boolean compile) {
+	Processor processor = Machine.processor();
+	byte[] memory = processor.getMemory();
+
+	for (int i=0; i<Processor.numUserRegisters; i++)
+	    processor.writeRegister(i, 0);
+	processor.writeRegister(Processor.regA0, -8);
+	processor.writeRegister(Processor.regA1, 4);
+	processor.writeRegister(Processor.regRA, data);
+	processor.writeRegister(Processor.regNextPC, 4);
+
+	for (int i=0; i<3; i++)
+	    Lib.bytesFromInt(memory, data + i*4, 0);
+
+	processor.runBlock(compile);
+
+	int[] state = new int[Processor.numUserRegisters + 3];
+	for (int i=0; i<Processor.numUserRegisters; i++)
+	    state[i] = processor.readRegister(i);
+	for (int i=0; i<3; i++)
+	    state[Processor.numUserRegisters + i] =
+		Lib.bytesToInt(memory, data + i*4);
+
+	return state;
+    }
+
+    /** Where the program stores its results. */
+    private static final int data = 0x100;
+
+    /**
+     * The program. $a0 holds -8 and $a1 holds 4; the final <tt>jr</tt> and
+     * its delay slot end the block.
+     */
+    private static final int[] program = {
+	0x00044042,	// srl	$t0, $a0, 1
+	0x00044FC2,	// srl	$t1, $a0, 31
+	0x00A45006,	// srlv	$t2, $a0, $a1
+	0x00045843,	// sra	$t3, $a0, 1
+	0x000460C0,	// sll	$t4, $a0, 3
+	0xAC080100,	// sw	$t0, 0x100($zero)
+	0xAC0A0104,	// sw	$t2, 0x104($zero)
+	0x8C0D0100,	// lw	$t5, 0x100($zero)
+	0x01A97021,	// addu	$t6, $t5, $t1
+	0xAC0E0108,	// sw	$t6, 0x108($zero)
+	0x03E00008,	// jr	$ra
+	0x00000000,	// nop
+    };
+}
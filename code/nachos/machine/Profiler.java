@@ -0,0 +1,315 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A profiler for user programs. The processor tells the profiler about every
+ * instruction it completes, and about every page fault and TLB miss. When
+ * the machine halts, the profiler reports where the user ticks went, by
+ * instruction, by basic block, and by procedure.
+ *
+ * <p>
+ * A basic block is counted as entered whenever an instruction is reached by
+ * anything other than falling through from the previous instruction.
+ * Procedure names come from the symbol tables of the COFF executables that
+ * have been loaded. Counts are kept by virtual address, so if several
+ * programs run, their profiles are merged.
+ *
+ * <p>
+ * If <tt>Profiler.output</tt> is set, the text report is written to that
+ * file with <tt>.txt</tt> appended, and a folded-stack report, suitable for
+ * drawing a flame graph, is written with <tt>.folded</tt> appended.
+ * Otherwise, the text report is printed.
+ */
+public final class Profiler {
+    /**
+     * Allocate a new profiler.
+     *
+     * @param	privilege      	encapsulates privileged access to the Nachos
+     *				machine.
+     */
+    public Profiler(Privilege privilege) {
+	System.out.print(" profiler");
+
+	this.privilege = privilege;
+
+	output = Config.getString("Profiler.output", null);
+    }
+
+    /**
+     * Record that a user instruction completed.
+     *
+     * @param	pc	the virtual address of the instruction.
+     */
+    public void instruction(int pc) {
+	Counts counts = getCounts(pc);
+	int index = Processor.offsetFromAddress(pc) / 4;
+
+	counts.instructions[index]++;
+	if (pc != lastPC+4)
+	    counts.blocks[index]++;
+
+	lastPC = pc;
+    }
+
+    /**
+     * Record that a user instruction caused an exception. Only page faults
+     * and TLB misses are counted.
+     *
+     * @param	pc	the virtual address of the instruction.
+     * @param	cause	the cause of the exception.
+     */
+    public void exception(int pc, int cause) {
+	if (cause != Processor.exceptionPageFault &&
+	    cause != Processor.exceptionTLBMiss)
+	    return;
+
+	Counts counts = getCounts(pc);
+	int index = Processor.offsetFromAddress(pc) / 4;
+
+	if (cause == Processor.exceptionPageFault)
+	    counts.pageFaults[index]++;
+	else
+	    counts.tlbMisses[index]++;
+
+	// the faulting instruction will be restarted
+	lastPC = pc-4;
+    }
+
+    /**
+     * Add a procedure from an executable's symbol table.
+     *
+     * @param	address	the virtual address of the first instruction.
+     * @param	name	the name of the procedure.
+     */
+    public void addProcedure(int address, String name) {
+	procedures.put(Long.valueOf(address & 0xFFFFFFFFL), name);
+    }
+
+    /**
+     * Report the profile. Called by <tt>Machine.halt()</tt>.
+     */
+    public void report() {
+	if (output == null) {
+	    PrintWriter writer = new PrintWriter(System.out);
+	    printText(writer);
+	    writer.flush();
+	    return;
+	}
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() {
+		    write(output + ".txt", false);
+		    write(output + ".folded", true);
+		}
+	    });
+    }
+
+    private void write(String name, boolean folded) {
+	try {
+	    PrintWriter writer = new PrintWriter(new FileWriter(name));
+
+	    if (folded)
+		printFolded(writer);
+	    else
+		printText(writer);
+
+	    writer.close();
+	}
+	catch (IOException e) {
+	    System.out.println("profiler: could not write " + name);
+	}
+    }
+
+    private Counts getCounts(int pc) {
+	int vpn = Processor.pageFromAddress(pc);
+
+	if (lastCounts != null && lastVPN == vpn)
+	    return lastCounts;
+
+	Integer key = Integer.valueOf(vpn);
+	Counts counts = pages.get(key);
+	if (counts == null) {
+	    counts = new Counts();
+	    pages.put(key, counts);
+	}
+
+	lastVPN = vpn;
+	lastCounts = counts;
+	return counts;
+    }
+
+    /**
+     * Return the name of the procedure containing the specified address.
+     */
+    private String procedureName(int pc) {
+	Map.Entry<Long,String> entry =
+	    procedures.floorEntry(Long.valueOf(pc & 0xFFFFFFFFL));
+
+	if (entry == null)
+	    return "0x" + Lib.toHexString(pc);
+	else
+	    return entry.getValue();
+    }
+
+    /**
+     * Collect the nonzero entries of one kind of count, sorted by address.
+     */
+    private ArrayList<long[]> collect(int kind) {
+	ArrayList<long[]> list = new ArrayList<long[]>();
+
+	for (Iterator<Map.Entry<Integer,Counts>> i=pages.entrySet().iterator();
+	     i.hasNext(); ) {
+	    Map.Entry<Integer,Counts> page = i.next();
+	    long[] counts = page.getValue().get(kind);
+
+	    for (int j=0; j<counts.length; j++) {
+		if (counts[j] != 0) {
+		    long pc = ((long) page.getKey().intValue() *
+			       Processor.pageSize) + j*4;
+		    list.add(new long[] { pc, counts[j] });
+		}
+	    }
+	}
+
+	Collections.sort(list, new Comparator<long[]>() {
+		public int compare(long[] a, long[] b) {
+		    return (a[0] < b[0]) ? -1 : ((a[0] > b[0]) ? 1 : 0);
+		}
+	    });
+
+	return list;
+    }
+
+    private void printText(PrintWriter out) {
+	ArrayList<long[]> instructions = collect(Counts.instructionCounts);
+
+	long total = 0;
+	for (int i=0; i<instructions.size(); i++)
+	    total += instructions.get(i)[1];
+
+	// sum up instructions by procedure, keeping the procedures in order
+	TreeMap<Long,long[]> byProcedure = new TreeMap<Long,long[]>();
+	HashMap<Long,String> names = new HashMap<Long,String>();
+	for (int i=0; i<instructions.size(); i++) {
+	    long[] count = instructions.get(i);
+	    Map.Entry<Long,String> entry = procedures.floorEntry(count[0]);
+	    Long key = (entry == null) ? Long.valueOf(-1) : entry.getKey();
+
+	    long[] sum = byProcedure.get(key);
+	    if (sum == null) {
+		sum = new long[1];
+		byProcedure.put(key, sum);
+		names.put(key, (entry == null) ? "(unknown)" : entry.getValue());
+	    }
+	    sum[0] += count[1];
+	}
+
+	out.println("Profile: " + total + " user instructions");
+
+	out.println("Procedures:");
+	for (Iterator<Map.Entry<Long,long[]>> i=byProcedure.entrySet().iterator();
+	     i.hasNext(); ) {
+	    Map.Entry<Long,long[]> entry = i.next();
+	    out.println("  " + percent(entry.getValue()[0], total) + "\t" +
+			entry.getValue()[0] + "\t" + names.get(entry.getKey()));
+	}
+
+	printCounts(out, "Basic blocks (entries)", Counts.blockCounts, maxLines);
+	printCounts(out, "Instructions", Counts.instructionCounts, maxLines);
+	printCounts(out, "Page faults", Counts.pageFaultCounts, maxLines);
+	printCounts(out, "TLB misses", Counts.tlbMissCounts, maxLines);
+    }
+
+    /**
+     * Print the largest counts of one kind, most frequent first.
+     */
+    private void printCounts(PrintWriter out, String title, int kind,
+			     int limit) {
+	ArrayList<long[]> list = collect(kind);
+
+	Collections.sort(list, new Comparator<long[]>() {
+		public int compare(long[] a, long[] b) {
+		    return (a[1] > b[1]) ? -1 : ((a[1] < b[1]) ? 1 : 0);
+		}
+	    });
+
+	out.println(title + ":");
+	for (int i=0; i<list.size() && i<limit; i++) {
+	    int pc = (int) list.get(i)[0];
+	    out.println("  0x" + Lib.toHexString(pc) + "\t" + list.get(i)[1] +
+			"\t" + procedureName(pc));
+	}
+    }
+
+    private void printFolded(PrintWriter out) {
+	ArrayList<long[]> instructions = collect(Counts.instructionCounts);
+
+	for (int i=0; i<instructions.size(); i++) {
+	    int pc = (int) instructions.get(i)[0];
+	    out.println(procedureName(pc) + ";0x" + Lib.toHexString(pc) + " " +
+			instructions.get(i)[1]);
+	}
+    }
+
+    private static String percent(long count, long total) {
+	if (total == 0)
+	    return "0.0%";
+
+	long tenths = (count * 1000 + total/2) / total;
+	return (tenths/10) + "." + (tenths%10) + "%";
+    }
+
+    /**
+     * The counts for one virtual page, indexed by word offset.
+     */
+    private static class Counts {
+	long[] get(int kind) {
+	    switch (kind) {
+	    case instructionCounts:
+		return instructions;
+	    case blockCounts:
+		return blocks;
+	    case pageFaultCounts:
+		return pageFaults;
+	    default:
+		return tlbMisses;
+	    }
+	}
+
+	long[] instructions = new long[Processor.pageSize/4];
+	long[] blocks = new long[Processor.pageSize/4];
+	long[] pageFaults = new long[Processor.pageSize/4];
+	long[] tlbMisses = new long[Processor.pageSize/4];
+
+	static final int instructionCounts = 0;
+	static final int blockCounts = 1;
+	static final int pageFaultCounts = 2;
+	static final int tlbMissCounts = 3;
+    }
+
+    private Privilege privilege;
+    private String output;
+
+    private HashMap<Integer,Counts> pages = new HashMap<Integer,Counts>();
+    private TreeMap<Long,String> procedures = new TreeMap<Long,String>();
+
+    private int lastPC = -1;
+    private int lastVPN;
+    private Counts lastCounts = null;
+
+    private static final int maxLines = 20;
+}
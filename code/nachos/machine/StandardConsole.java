@@ -86,10 +86,30 @@ public class StandardConsole implements SerialConsole {
     }
 
 
+    /**
+     * Poll for a byte, from the input log if replaying, or else from
+     * <tt>in()</tt>.
+     *
+     * @return	the byte read, or -1 of no data is available.
+     */
+    private int poll() {
+	InputLog log = Machine.inputLog();
+
+	if (log != null && log.isReplaying())
+	    return log.replayConsole();
+
+	int value = in();
+
+	if (log != null)
+	    log.recordConsole(value);
+
+	return value;
+    }
+
     private void receiveInterrupt() {
 	Lib.assertTrue(incomingKey == -1);
 
-	incomingKey = translateCharacter(in());
+	incomingKey = translateCharacter(poll());
 	if (incomingKey == -1) {
 	    scheduleReceiveInterrupt();
 	}
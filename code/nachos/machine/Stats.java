@@ -27,6 +27,10 @@ public final class Stats {
 			   + ", writes " + numConsoleWrites);
 	System.out.println("Paging: page faults " + numPageFaults
 			   + ", TLB misses " + numTLBMisses);
+	if (numTLBHits != 0)
+	    System.out.println("TLB: hits " + numTLBHits
+			       + ", evictions " + numTLBEvictions
+			       + ", page table walks " + numTLBWalks);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
     }
@@ -57,6 +61,18 @@ public final class Stats {
     public int numPageFaults = 0;
     /** The total number of TLB misses that have occurred. */
     public int numTLBMisses = 0;
+    /** The total number of TLB lookups that found a matching entry. */
+    public long numTLBHits = 0;
+    /**
+     * The total number of valid TLB entries replaced by the hardware
+     * replacement policy.
+     */
+    public int numTLBEvictions = 0;
+    /**
+     * The total number of TLB misses handled by the processor walking the
+     * page table, instead of by the kernel.
+     */
+    public int numTLBWalks = 0;
     /** The total number of packets Nachos has sent to the network. */
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
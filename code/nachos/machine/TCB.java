@@ -5,13 +5,34 @@ package nachos.machine;
 import nachos.security.*;
 import nachos.threads.KThread;
 
+import java.util.ArrayList;
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
  * A TCB simulates the low-level details necessary to create, context-switch,
  * and destroy Nachos threads. Each TCB controls an underlying JVM Thread
- * object.
+ * object. TCBs hand control to each other by setting the <tt>running</tt>
+ * flag of the next TCB and unparking its JVM thread with
+ * <tt>LockSupport</tt>, and a JVM thread whose TCB is destroyed goes back to
+ * a pool, to run the next TCB started.
+ *
+ * <p>
+ * If <tt>TCB.threads</tt> is <tt>virtual</tt>, the JVM threads are virtual
+ * threads, which are much cheaper to create and switch between. On a JVM
+ * without virtual threads, platform threads are used instead, as they are by
+ * default (<tt>platform</tt>). <tt>TCB.maxThreads</tt> sets the limit on the
+ * number of TCBs, <tt>maxThreads</tt> by default.
+ *
+ * <p>
+ * If <tt>TCB.threads</tt> is <tt>coroutine</tt>, every TCB, including the
+ * first, runs on a virtual thread, and all virtual threads share a single
+ * carrier thread. Since a parked virtual thread is just a suspended
+ * continuation, a context switch then resumes one continuation on the same
+ * JVM thread, without involving the host scheduler. Without virtual threads,
+ * this falls back like <tt>virtual</tt>.
  *
  * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
@@ -40,6 +61,83 @@ public final class TCB {
     public static void givePrivilege(Privilege privilege) {
 	TCB.privilege = privilege;
 	privilege.tcb = new TCBPrivilege();
+
+	threadLimit = Config.getInteger("TCB.maxThreads", maxThreads);
+	Lib.assertTrue(threadLimit > 0);
+
+	String threads = Config.getString("TCB.threads", "platform");
+	if (threads.equals("virtual")) {
+	    findVirtualThreads();
+	}
+	else if (threads.equals("coroutine")) {
+	    /* The virtual thread scheduler reads these when it is created,
+	     * which is when the first virtual thread is.
+	     */
+	    System.setProperty("jdk.virtualThreadScheduler.parallelism", "1");
+	    System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", "1");
+
+	    findVirtualThreads();
+	    coroutines = (newVirtualThread != null);
+	}
+	else if (!threads.equals("platform")) {
+	    Lib.assertNotReached("bad value for TCB.threads");
+	}
+    }
+
+    /**
+     * The first time a virtual thread creates a thread, the JDK audits the
+     * virtual thread class, which takes permissions that a Nachos thread
+     * does not have. A Nachos thread on a virtual thread that blocks may
+     * have the JDK create a carrier thread on it, so get the audit done
+     * before the first TCB starts, while this is not yet a Nachos thread.
+     */
+    private static void auditVirtualThreads() {
+	Thread auditor = newThread(new Runnable() {
+		public void run() { new Thread(); }
+	    });
+	auditor.start();
+
+	while (true) {
+	    try {
+		auditor.join();
+		break;
+	    }
+	    catch (InterruptedException e) {
+	    }
+	}
+    }
+
+    /**
+     * Look up <tt>Thread.ofVirtual().unstarted()</tt>, which only exists on
+     * newer JVMs, so it must be called through reflection.
+     */
+    private static void findVirtualThreads() {
+	try {
+	    virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+	    newVirtualThread =
+		Class.forName("java.lang.Thread$Builder").getMethod("unstarted",
+								     Runnable.class);
+	}
+	catch (Exception e) {
+	    virtualBuilder = null;
+	    newVirtualThread = null;
+	}
+    }
+
+    /**
+     * Create an unstarted JVM thread to run the specified target, a virtual
+     * thread if they are in use.
+     */
+    private static Thread newThread(Runnable target) {
+	if (newVirtualThread == null)
+	    return new Thread(target);
+
+	try {
+	    return (Thread) newVirtualThread.invoke(virtualBuilder, target);
+	}
+	catch (Exception e) {
+	    return new Thread(target);
+	}
     }
     
     /**
@@ -66,10 +164,13 @@ public final class TCB {
 	/* Make sure there aren't too many running TCBs already. This
 	 * limitation exists in an effort to prevent wild thread usage.
 	 */
-	Lib.assertTrue(runningThreads.size() < maxThreads);
+	Lib.assertTrue(runningThreads.size() < threadLimit);
 
 	isFirstTCB = (currentTCB == null);
 
+	if (isFirstTCB && newVirtualThread != null)
+	    auditVirtualThreads();
+
 	/* Probably unnecessary sanity check: if this is not the first TCB, we
 	 * make sure that the current thread is bound to the current TCB. This
 	 * check can only fail if non-Nachos threads invoke start().
@@ -86,28 +187,64 @@ public final class TCB {
 	this.target = target;
 
 	if (!isFirstTCB) {
-	    /* If this is not the first TCB, we have to make a new Java thread
-	     * to run it. Creating Java threads is a privileged operation.
+	    /* If this is not the first TCB, we need a Java thread to run it.
+	     * We reuse one left over from a destroyed TCB if we can, and
+	     * otherwise make a new one. Creating Java threads is a privileged
+	     * operation.
 	     */
-	    tcbTarget = new Runnable() {
-		    public void run() { threadroot(); }
-		};
+	    final Worker worker;
+	    if (!idleWorkers.isEmpty()) {
+		worker = idleWorkers.remove(idleWorkers.size()-1);
+	    }
+	    else {
+		worker = new Worker();
+		privilege.doPrivileged(new Runnable() {
+			public void run() { worker.thread = newThread(worker); }
+		    });
+	    }
 
-	    privilege.doPrivileged(new Runnable() {
-		    public void run() { javaThread = new Thread(tcbTarget); }
-		});
+	    javaThread = worker.thread;
 
-	    /* The Java thread hasn't yet started, but we need to get it
-	     * blocking in yield(). We do this by temporarily turning off the
-	     * current TCB, starting the new Java thread, and waiting for it
-	     * to wake us up from threadroot(). Once the new TCB wakes us up,
-	     * it's safe to context switch to the new TCB.
+	    /* The new TCB isn't running yet, but we need to get it blocking in
+	     * yield(). We do this by temporarily turning off the current TCB,
+	     * handing the new TCB to the Java thread, and waiting for it to
+	     * wake us up from threadroot(). Once the new TCB wakes us up, it's
+	     * safe to context switch to the new TCB.
 	     */
 	    currentTCB.running = false;
-	    
-	    this.javaThread.start();
+
+	    /* Starting a Java thread is privileged too; starting the first
+	     * virtual thread also creates the carrier threads that run it.
+	     */
+	    if (worker.started) {
+		worker.run(this);
+	    }
+	    else {
+		final TCB tcb = this;
+		privilege.doPrivileged(new Runnable() {
+			public void run() { worker.run(tcb); }
+		    });
+	    }
+
 	    currentTCB.waitForInterrupt();
 	}
+	else if (coroutines) {
+	    /* This is the first TCB, but it has to run on the carrier thread
+	     * along with all the others, so it gets a virtual thread too. The
+	     * current Java thread just waits for Nachos to exit.
+	     */
+	    privilege.doPrivileged(new Runnable() {
+		    public void run() {
+			javaThread = newThread(new Runnable() {
+				public void run() { threadroot(); }
+			    });
+			javaThread.start();
+		    }
+		});
+
+	    while (true)
+		LockSupport.park();
+	}
 	else {
 	    /* This is the first TCB, so we don't need to make a new Java
 	     * thread to run it; we just steal the current Java thread.
@@ -247,6 +384,14 @@ public final class TCB {
 	    runningThreads.removeElement(this);
 	    if (runningThreads.isEmpty())
 		privilege.exit(0);
+
+	    /* Virtual threads do not keep the JVM running, so the Java thread
+	     * of the first TCB must stay alive until Nachos exits.
+	     */
+	    if (isFirstTCB && newVirtualThread != null && !coroutines) {
+		while (true)
+		    LockSupport.park();
+	    }
 	}
 	catch (Throwable e) {
 	    System.out.print("\n");
@@ -272,6 +417,14 @@ public final class TCB {
 	waitForInterrupt();
 	
 	if (done) {
+	    /* Our Java thread can run the next TCB started, once we've
+	     * unwound out of threadroot(). Only one TCB runs at a time, and
+	     * this happens before we wake up destroy(), so no locking is
+	     * needed.
+	     */
+	    if (worker != null)
+		idleWorkers.add(worker);
+
 	    currentTCB.interrupt();
 	    throw new ThreadDeath();
 	}
@@ -280,29 +433,67 @@ public final class TCB {
     }
 
     /**
-     * Waits on the monitor bound to this TCB until its <tt>running</tt> flag
-     * is set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a
+     * Parks the calling Java thread until this TCB's <tt>running</tt> flag
+     * is set to <tt>true</tt>. Since the flag is checked again after every
+     * wakeup, stray wakeups do no harm. <tt>waitForInterrupt()</tt> is used whenever a
      * TCB needs to go to wait for its turn to run. This includes the ping-pong
      * process of starting and destroying TCBs, as well as in context switching
      * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
      * is updated by <tt>contextSwitch()</tt> before we get called.
      */
-    private synchronized void waitForInterrupt() {
-	while (!running) {
-	    try { wait(); }
-	    catch (InterruptedException e) { }
-	}
+    private void waitForInterrupt() {
+	while (!running)
+	    LockSupport.park(this);
     }
 
     /**
      * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-     * and signalling the monitor bound to it. Used in the ping-pong process of
+     * and unparking its Java thread. Used in the ping-pong process of
      * starting and destroying TCBs, as well as in context switching to this
      * TCB.
      */
-    private synchronized void interrupt() {
+    private void interrupt() {
 	running = true;
-	notify();
+	LockSupport.unpark(javaThread);
+    }
+
+    /**
+     * A Java thread that runs one TCB after another. When a TCB is
+     * destroyed, its worker goes into <tt>idleWorkers</tt> and parks until
+     * <tt>start()</tt> hands it another TCB.
+     */
+    private static class Worker implements Runnable {
+	/**
+	 * Run the specified TCB in this worker's thread, starting the thread
+	 * if this is its first TCB.
+	 */
+	void run(TCB tcb) {
+	    tcb.worker = this;
+	    next = tcb;
+
+	    if (!started) {
+		started = true;
+		thread.start();
+	    }
+	    else {
+		LockSupport.unpark(thread);
+	    }
+	}
+
+	public void run() {
+	    while (true) {
+		TCB tcb;
+		while ((tcb = next) == null)
+		    LockSupport.park(this);
+
+		next = null;
+		tcb.threadroot();
+	    }
+	}
+
+	Thread thread;
+	private boolean started = false;
+	private volatile TCB next = null;
     }
 
     private void associateThread(KThread thread) {
@@ -327,11 +518,25 @@ public final class TCB {
     }
 
     /**
-     * The maximum number of started, non-destroyed TCB's that can be in
-     * existence.
+     * The default maximum number of started, non-destroyed TCB's that can be
+     * in existence.
      */
     public static final int maxThreads = 250;
 
+    /** The maximum number of TCBs, from <tt>TCB.maxThreads</tt>. */
+    private static int threadLimit = maxThreads;
+
+    /**
+     * <tt>true</tt> if every TCB runs on a virtual thread, all on one carrier
+     * thread.
+     */
+    private static boolean coroutines = false;
+
+    /** <tt>Thread.ofVirtual()</tt>, if virtual threads are in use. */
+    private static Object virtualBuilder = null;
+    /** <tt>Thread.Builder.unstarted()</tt>, if virtual threads are in use. */
+    private static Method newVirtualThread = null;
+
     /**
      * A reference to the currently running TCB. It is initialized to
      * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -354,12 +559,18 @@ public final class TCB {
      * on each TCB object. TCB objects are removed only in each of the
      * <tt>catch</tt> clauses of <tt>threadroot()</tt>, one of which is always
      * invoked on thread termination. The maximum number of threads in
-     * <tt>runningThreads</tt> is limited to <tt>maxThreads</tt> by
+     * <tt>runningThreads</tt> is limited to <tt>threadLimit</tt> by
      * <tt>start(Runnable)</tt>. If <tt>threadroot()</tt> drops the number of
      * TCB objects in <tt>runningThreads</tt> to zero, Nachos exits, so once
      * the first TCB is created, this vector is basically never empty.
      */
     private static Vector<TCB> runningThreads = new Vector<TCB>();
+
+    /**
+     * Workers whose TCBs have been destroyed, waiting to be reused. Only the
+     * current TCB touches this list.
+     */
+    private static ArrayList<Worker> idleWorkers = new ArrayList<Worker>();
     
     private static Privilege privilege;
     private static KThread toBeDestroyed = null;
@@ -388,7 +599,7 @@ public final class TCB {
      * destroying a TCB, this is temporarily true for a thread other than that
      * of the current TCB.
      */
-    private boolean running = false;
+    private volatile boolean running = false;
 
     /**
      * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -400,7 +611,8 @@ public final class TCB {
     private KThread nachosThread = null;
     private boolean associated = false;
     private Runnable target;
-    private Runnable tcbTarget;
+    /** The worker running this TCB, or <tt>null</tt> for the first TCB. */
+    private Worker worker = null;
 
     private static class TCBPrivilege implements Privilege.TCBPrivilege {
 	public void associateThread(KThread thread) {
@@ -13,6 +13,11 @@ import nachos.security.*;
  * interrupt to occur every time approximately 500 clock ticks pass. There is
  * a small degree of randomness here, so interrupts do not occur exactly every
  * 500 ticks.
+ *
+ * <p>
+ * If <tt>Timer.tickless</tt> is set, the timer is instead a one-shot timer:
+ * it interrupts only at the deadline last set by <tt>setDeadline()</tt>, so
+ * a kernel can leave it idle when it has nothing to preempt or wake up.
  */
 public final class Timer {
     /**
@@ -37,7 +42,56 @@ public final class Timer {
 		}
 	    };
 
-	scheduleInterrupt();
+	tickless = Config.getBoolean("Timer.tickless", false);
+
+	if (!tickless)
+	    scheduleInterrupt();
+    }
+
+    /**
+     * Test whether this timer is a one-shot timer, programmed with
+     * <tt>setDeadline()</tt>, instead of a periodic one.
+     *
+     * @return	<tt>true</tt> if <tt>Timer.tickless</tt> is set.
+     */
+    public boolean isTickless() {
+	return tickless;
+    }
+
+    /**
+     * Program the one-shot timer to interrupt at the specified time, or on
+     * the next tick if that time has passed. Replaces any deadline set
+     * before.
+     *
+     * @param	time	the time at which to interrupt.
+     */
+    public void setDeadline(long time) {
+	Lib.assertTrue(tickless);
+
+	privilege.interrupt.cancel(timerInterrupt);
+
+	deadline = time;
+	privilege.interrupt.schedule(Math.max(1, time - getTime()), "timer",
+				     timerInterrupt);
+    }
+
+    /**
+     * Cancel the deadline of the one-shot timer, if any.
+     */
+    public void cancelDeadline() {
+	Lib.assertTrue(tickless);
+
+	privilege.interrupt.cancel(timerInterrupt);
+	deadline = -1;
+    }
+
+    /**
+     * Return the time at which the one-shot timer will interrupt.
+     *
+     * @return	the deadline, or -1 if none is set.
+     */
+    public long getDeadline() {
+	return deadline;
     }
 
     /**
@@ -60,7 +114,10 @@ public final class Timer {
     }
 
     private void timerInterrupt() {
-	scheduleInterrupt();
+	if (tickless)
+	    deadline = -1;
+	else
+	    scheduleInterrupt();
 	scheduleAutoGraderInterrupt();
 
 	lastTimerInterrupt = getTime();
@@ -80,6 +137,9 @@ public final class Timer {
 	privilege.interrupt.schedule(1, "timerAG", autoGraderInterrupt);
     }
 
+    private boolean tickless;
+    private long deadline = -1;
+
     private long lastTimerInterrupt;
     private Runnable timerInterrupt;
     private Runnable autoGraderInterrupt;
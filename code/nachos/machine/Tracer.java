@@ -0,0 +1,255 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A binary trace recorder. Each event is written as a fixed-size record
+ * into a ring of records in a memory-mapped file, so recording an event
+ * costs a few stores, and a long run keeps only its most recent events.
+ *
+ * <p>
+ * The file starts with a header of <tt>headerLength</tt> bytes, holding
+ * the magic number, the record size, the ring capacity, the number of
+ * records ever written, and the names of interrupt types. Each record holds
+ * the simulated time, the kind of event, and three integer fields:
+ *
+ * <ul>
+ * <li><tt>INSTRUCTION</tt>: PC, instruction word, and memory address (or 0).
+ * <li><tt>EXCEPTION</tt>: PC, cause, and bad virtual address.
+ * <li><tt>INTERRUPT</tt>: interrupt type (an index into the name table).
+ * <li><tt>CONTEXT_SWITCH</tt>: the old and new thread IDs.
+ * </ul>
+ *
+ * <p>
+ * The file is read back with <tt>java nachos.machine.Tracer <i>file</i></tt>.
+ */
+public final class Tracer {
+    /**
+     * Allocate a new trace recorder, creating its file.
+     *
+     * @param	privilege      	encapsulates privileged access to the Nachos
+     *				machine.
+     */
+    public Tracer(Privilege privilege) {
+	System.out.print(" tracer");
+
+	this.privilege = privilege;
+
+	final String name = Config.getString("Tracer.file", "nachos.trace");
+	capacity = Config.getInteger("Tracer.records", 1<<20);
+	// the ring is mapped as one buffer, so it must fit in 2GB
+	Lib.assertTrue(capacity > 0 &&
+		       capacity <= (Integer.MAX_VALUE-headerLength)/recordLength,
+		       "Tracer.records out of range");
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() { map(new File(name)); }
+	    });
+
+	Lib.assertTrue(buffer != null, "could not map trace file " + name);
+
+	buffer.putInt(0, magic);
+	buffer.putInt(4, recordLength);
+	buffer.putInt(8, capacity);
+	buffer.putLong(countOffset, 0);
+	buffer.putInt(namesOffset, 0);
+    }
+
+    private void map(File f) {
+	try {
+	    RandomAccessFile file = new RandomAccessFile(f, "rw");
+	    long length = headerLength + (long) capacity*recordLength;
+
+	    file.setLength(length);
+	    buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					   length);
+	    buffer.order(ByteOrder.LITTLE_ENDIAN);
+	    file.close();
+	}
+	catch (IOException e) {
+	    buffer = null;
+	}
+    }
+
+    /**
+     * Record a completed user instruction.
+     *
+     * @param	pc	the virtual address of the instruction.
+     * @param	value	the instruction word.
+     * @param	addr	the virtual address it accessed, or 0 if none.
+     */
+    public void instruction(int pc, int value, int addr) {
+	record(INSTRUCTION, pc, value, addr);
+    }
+
+    /**
+     * Record a user exception.
+     *
+     * @param	pc	the virtual address of the faulting instruction.
+     * @param	cause	the cause of the exception.
+     * @param	badVAddr	the bad virtual address, or 0 if none.
+     */
+    public void exception(int pc, int cause, int badVAddr) {
+	record(EXCEPTION, pc, cause, badVAddr);
+    }
+
+    /**
+     * Record the dispatch of an interrupt handler.
+     *
+     * @param	type	the type of interrupt.
+     */
+    public void interrupt(String type) {
+	Integer index = types.get(type);
+	if (index == null) {
+	    index = Integer.valueOf(addName(type));
+	    types.put(type, index);
+	}
+
+	record(INTERRUPT, index.intValue(), 0, 0);
+    }
+
+    /**
+     * Record a context switch between threads.
+     *
+     * @param	from	the ID of the thread that was running.
+     * @param	to	the ID of the thread that will run next.
+     */
+    public void contextSwitch(int from, int to) {
+	record(CONTEXT_SWITCH, from, to, 0);
+    }
+
+    private void record(int kind, int a, int b, int c) {
+	int position = headerLength + (int) (count % capacity) * recordLength;
+
+	buffer.putLong(position, privilege.stats.totalTicks);
+	buffer.putInt(position+8, kind);
+	buffer.putInt(position+12, a);
+	buffer.putInt(position+16, b);
+	buffer.putInt(position+20, c);
+
+	count++;
+	buffer.putLong(countOffset, count);
+    }
+
+    /**
+     * Add a name to the name table in the header, and return its index. If
+     * the table is full, the name is recorded as an empty string.
+     */
+    private int addName(String name) {
+	int index = buffer.getInt(namesOffset);
+	byte[] bytes = name.getBytes();
+
+	if (namesEnd + bytes.length + 1 <= headerLength) {
+	    for (int i=0; i<bytes.length; i++)
+		buffer.put(namesEnd++, bytes[i]);
+	}
+	if (namesEnd < headerLength)
+	    buffer.put(namesEnd++, (byte) 0);
+
+	buffer.putInt(namesOffset, index+1);
+	return index;
+    }
+
+    /**
+     * Print the records in a trace file, oldest first.
+     *
+     * @param	args	the name of the trace file.
+     */
+    public static void main(String[] args) throws IOException {
+	if (args.length != 1) {
+	    System.err.println("usage: java nachos.machine.Tracer <file>");
+	    System.exit(1);
+	}
+
+	RandomAccessFile file = new RandomAccessFile(args[0], "r");
+	MappedByteBuffer buffer =
+	    file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+				  file.length());
+	buffer.order(ByteOrder.LITTLE_ENDIAN);
+	file.close();
+
+	if (buffer.getInt(0) != magic || buffer.getInt(4) != recordLength) {
+	    System.err.println(args[0] + ": not a trace file");
+	    System.exit(1);
+	}
+
+	int capacity = buffer.getInt(8);
+	long count = buffer.getLong(countOffset);
+
+	ArrayList<String> names = new ArrayList<String>();
+	int numNames = buffer.getInt(namesOffset);
+	for (int i=namesOffset+4; names.size() < numNames; i++) {
+	    StringBuffer name = new StringBuffer();
+	    for (; i<headerLength && buffer.get(i) != 0; i++)
+		name.append((char) buffer.get(i));
+	    names.add(name.toString());
+	}
+
+	long first = Math.max(0, count - capacity);
+	if (first > 0)
+	    System.out.println("(" + first + " older records overwritten)");
+
+	for (long n=first; n<count; n++) {
+	    int position = headerLength + (int) (n % capacity) * recordLength;
+	    long time = buffer.getLong(position);
+	    int a = buffer.getInt(position+12);
+	    int b = buffer.getInt(position+16);
+	    int c = buffer.getInt(position+20);
+
+	    String line = time + "\t";
+	    switch (buffer.getInt(position+8)) {
+	    case INSTRUCTION:
+		line += "inst\tPC=0x" + Lib.toHexString(a) + " 0x" +
+		    Lib.toHexString(b);
+		if (c != 0)
+		    line += " addr=0x" + Lib.toHexString(c);
+		break;
+	    case EXCEPTION:
+		line += "exception\tPC=0x" + Lib.toHexString(a) + " cause=" + b;
+		if (c != 0)
+		    line += " badvaddr=0x" + Lib.toHexString(c);
+		break;
+	    case INTERRUPT:
+		line += "interrupt\t" + (a < names.size() ? names.get(a) : "?");
+		break;
+	    case CONTEXT_SWITCH:
+		line += "switch\t#" + a + " -> #" + b;
+		break;
+	    default:
+		line += "unknown";
+		break;
+	    }
+
+	    System.out.println(line);
+	}
+    }
+
+    private Privilege privilege;
+    private MappedByteBuffer buffer = null;
+    private int capacity;
+    private long count = 0;
+
+    private HashMap<String,Integer> types = new HashMap<String,Integer>();
+    private int namesEnd = namesOffset+4;
+
+    /** Kinds of records. */
+    private static final int INSTRUCTION = 1, EXCEPTION = 2, INTERRUPT = 3,
+	CONTEXT_SWITCH = 4;
+
+    private static final int magic = 0x4352544E;	// "NTRC"
+    private static final int recordLength = 24;
+    private static final int headerLength = 4096;
+    private static final int countOffset = 16;
+    private static final int namesOffset = 64;
+}
@@ -48,6 +48,8 @@ public final class TranslationEntry {
 	readOnly = entry.readOnly;
 	used = entry.used;
 	dirty = entry.dirty;
+	asid = entry.asid;
+	numPages = entry.numPages;
     }
 
     /** The virtual page number. */
@@ -78,4 +80,27 @@ public final class TranslationEntry {
      * user program.
      */
     public boolean dirty;
+
+    /**
+     * The address space this entry belongs to, when it is in a TLB. A TLB
+     * entry only matches while the processor's current ASID is the same.
+     * Page table entries ignore this field.
+     */
+    public int asid = 0;
+
+    /**
+     * The number of pages this entry maps, a power of 2. An entry that maps
+     * more than one page is a superpage: it maps the aligned run of
+     * <tt>numPages</tt> virtual pages containing <tt>vpn</tt> to the aligned
+     * run of physical pages containing <tt>ppn</tt>, so <tt>vpn</tt> and
+     * <tt>ppn</tt> must be equal modulo <tt>numPages</tt>. The used and dirty
+     * bits then cover the whole superpage.
+     *
+     * <p>
+     * Only TLB entries map superpages. When the processor translates through
+     * a page table, each entry maps just its own <tt>vpn</tt> to its own
+     * <tt>ppn</tt>, and this field only tells a kernel that copies the entry
+     * into a TLB how large a page it may load.
+     */
+    public int numPages = 1;
 }
@@ -122,6 +122,24 @@ public class NachosSecurityManager extends SecurityManager {
 	return (privileged == Thread.currentThread());
     }
 
+    /**
+     * Test whether the virtual thread scheduler is constructing a carrier
+     * thread: that is, whether a carrier thread constructor was called
+     * directly by the scheduler's thread factory. Code merely running on a
+     * carrier thread does not pass. User code cannot do this, since the
+     * carrier thread class is internal.
+     */
+    private boolean creatingCarrierThread() {
+	Class<?>[] context = getClassContext();
+	for (int i=0; i<context.length-1; i++) {
+	    if (context[i].getName().equals(carrierThreadClass) &&
+		context[i+1].getName().equals(virtualThreadClass))
+		return true;
+	}
+
+	return false;
+    }
+
     private void doPrivileged(final Runnable action) {
 	doPrivileged(new PrivilegedAction() {
 	    public Object run() { action.run(); return null; }
@@ -181,6 +199,15 @@ public class NachosSecurityManager extends SecurityManager {
 	    // no creating class loaders
 	    if (name.equals("createClassLoader"))
 		no(perm);
+
+	    // a virtual thread that blocks may make the JDK create another
+	    // carrier thread, on the virtual thread itself; only the checks
+	    // made by the Thread constructor are let through
+	    if ((name.equals("modifyThreadGroup") ||
+		 name.equals("modifyThread") ||
+		 name.equals("enableContextClassLoaderOverride")) &&
+		creatingCarrierThread())
+		return;
 	}
 	
 	// allow the AWT mess when not grading
@@ -314,5 +341,10 @@ public class NachosSecurityManager extends SecurityManager {
     private Thread privileged = null;
     private int privilegeCount = 0;
     
+    private static final String carrierThreadClass =
+	"jdk.internal.misc.CarrierThread";
+    private static final String virtualThreadClass =
+	"java.lang.VirtualThread";
+
     private static final char dbgSecurity = 'S';
 }
@@ -142,6 +142,12 @@ public abstract class Privilege {
 	/**
 	 * Schedule an interrupt to occur at some time in the future.
 	 *
+	 * <p>
+	 * The handler also serves as the handle of the interrupt. A device
+	 * that keeps one handler object and passes it every time schedules
+	 * its interrupts without allocating anything, and can withdraw them
+	 * with <tt>cancel()</tt>.
+	 *
 	 * @param	when	the number of ticks until the interrupt should
 	 *			occur.
 	 * @param	type	a name for the type of interrupt being
@@ -149,6 +155,13 @@ public abstract class Privilege {
 	 * @param	handler	the interrupt handler to call.
 	 */
 	public void schedule(long when, String type, Runnable handler);
+
+	/**
+	 * Cancel every pending interrupt with the specified handler.
+	 *
+	 * @param	handler	the handler of the interrupts to cancel.
+	 */
+	public void cancel(Runnable handler);
 	
 	/**
 	 * Advance the simulated time.
@@ -158,6 +171,24 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Return the number of user ticks that can pass before any pending
+	 * interrupt falls due. The processor may count this many ticks
+	 * without calling <tt>tick()</tt>, as long as it reports them through
+	 * <tt>advanceUserTicks()</tt> before the kernel runs.
+	 *
+	 * @return	the number of user ticks that can safely be batched.
+	 */
+	public int userTicksBeforeDue();
+
+	/**
+	 * Advance the simulated time by the specified number of user ticks,
+	 * none of which may cause a pending interrupt to fall due.
+	 *
+	 * @param	ticks	the number of user ticks that have passed.
+	 */
+	public void advanceUserTicks(int ticks);
     }
 
     /**
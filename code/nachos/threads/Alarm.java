@@ -2,6 +2,7 @@ package nachos.threads;
 
 import nachos.machine.*;
 import java.util.*;
+import nachos.machine.Timer;
 
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
@@ -69,20 +70,25 @@ public class Alarm {
 
     /**
      * The timer interrupt handler. This is called by the machine's timer
-     * periodically (approximately every 500 clock ticks). Causes the current
-     * thread to yield, forcing a context switch if there is another thread
-     * that should be run.
+     * periodically (approximately every 500 clock ticks), or, if the timer is
+     * tickless, at the deadline set by this alarm. Causes the current thread
+     * to yield, forcing a context switch if there is another thread that
+     * should be run, and wakes up any threads whose time has come. If the
+     * timer is tickless, the sleepers are woken first, so that the yield can
+     * choose one of them.
      */
     public void timerInterrupt() {
-	KThread.currentThread().yield();
-		
+		boolean tickless = Machine.timer().isTickless();
 
+		// a periodic timer ends the time slice before waking sleepers
+		if (!tickless)
+			KThread.yield();
 
 		// head of queue
 		SleepingThread head = STQueue.peek();
 
 		// first checks to see if head is not null and  if the time has
-	  // passed for waiting.
+		// passed for waiting.
 		// If the time has passed it loops through the priority queue
 		// until it reaches a thread that still has time leftover to wait.
 		while ((head != null) && (head.time <= Machine.timer().getTime()))
@@ -100,9 +106,51 @@ public class Alarm {
 			Machine.interrupt().restore(status);
 		}
 
+		// a tickless timer yields after waking them, so it can pick one
+		if (tickless)
+		{
+			scheduleTimer();
+			KThread.yield();
+		}
+    }
 
+    /**
+     * Called by <tt>KThread.ready()</tt> when a thread other than the current
+     * one becomes ready. If the timer is tickless, make sure it will end the
+     * current thread's time slice.
+     */
+    public void threadReady() {
+	Timer timer = Machine.timer();
+	if (!timer.isTickless())
+	    return;
+
+	long sliceEnd = timer.getTime() + Stats.TimerTicks;
+	if (timer.getDeadline() == -1 || timer.getDeadline() > sliceEnd)
+	    timer.setDeadline(sliceEnd);
+    }
 
-			
+    /**
+     * Program the tickless timer for the next time it is needed: the earliest
+     * wake time of a sleeping thread, or the end of a time slice if another
+     * thread is waiting to run. If neither, the timer is left off.
+     */
+    private void scheduleTimer() {
+	Timer timer = Machine.timer();
+	long deadline = -1;
+
+	if (!STQueue.isEmpty())
+	    deadline = STQueue.peek().time;
+
+	if (KThread.numReadyThreads() > 0) {
+	    long sliceEnd = timer.getTime() + Stats.TimerTicks;
+	    if (deadline == -1 || sliceEnd < deadline)
+		deadline = sliceEnd;
+	}
+
+	if (deadline == -1)
+	    timer.cancelDeadline();
+	else
+	    timer.setDeadline(deadline);
     }
 
     /**
@@ -139,6 +187,12 @@ public class Alarm {
 		
 					// insert sleeping thread onto priority queue
 					STQueue.add(thread);
+
+					// a tickless timer must be set to wake it
+					Timer timer = Machine.timer();
+					if (timer.isTickless() &&
+					    (timer.getDeadline() == -1 || timer.getDeadline() > wakeTime))
+						timer.setDeadline(wakeTime);
 			
 					// put thread to sleep
 					KThread.currentThread().sleep();
@@ -0,0 +1,155 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A priority scheduler that keeps each queue as one FIFO list per priority
+ * level, plus a bitmap of the levels that are not empty. Since there are only
+ * a few priority levels, the next thread is found by scanning the bitmap for
+ * its highest set bit, and every queue operation takes constant time.
+ *
+ * <p>
+ * This chooses the same threads as <tt>PriorityScheduler</tt>, and donates
+ * priority the same way, except that a waiting thread whose effective
+ * priority changes goes to the end of the list for its new level, as if it
+ * had just started waiting.
+ */
+public class BucketScheduler extends PriorityScheduler {
+    /**
+     * Allocate a new bucket scheduler.
+     */
+    public BucketScheduler() {
+    }
+
+    /**
+     * Allocate a new bucket thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer priority from waiting threads
+     *					to the owning thread.
+     * @return	a new bucket thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new BucketQueue(transferPriority);
+    }
+
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new BucketThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    private static final int numLevels = priorityMaximum - priorityMinimum + 1;
+
+    /**
+     * A <tt>ThreadQueue</tt> that keeps a FIFO list of waiting threads for
+     * each priority level.
+     */
+    protected class BucketQueue extends PriorityQueue {
+	BucketQueue(boolean transferPriority) {
+	    super(transferPriority);
+	}
+
+	protected ThreadState pickNextThread() {
+	    if (occupied == 0)
+		return null;
+
+	    return head[31 - Integer.numberOfLeadingZeros(occupied)];
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int level=numLevels-1; level>=0; level--) {
+		for (BucketThreadState state = head[level]; state != null;
+		     state = state.next)
+		    System.out.print(state.thread + " ");
+	    }
+	}
+
+	protected void add(ThreadState state) {
+	    link((BucketThreadState) state);
+	}
+
+	protected void remove(ThreadState state) {
+	    unlink((BucketThreadState) state);
+	}
+
+	protected void update(ThreadState state) {
+	    BucketThreadState bucketState = (BucketThreadState) state;
+
+	    if (bucketState.level != state.effectivePriority - priorityMinimum) {
+		unlink(bucketState);
+		link(bucketState);
+	    }
+	}
+
+	/**
+	 * Append a thread to the list for its effective priority.
+	 */
+	private void link(BucketThreadState state) {
+	    int level = state.effectivePriority - priorityMinimum;
+
+	    state.level = level;
+	    state.prev = tail[level];
+	    state.next = null;
+
+	    if (tail[level] == null)
+		head[level] = state;
+	    else
+		tail[level].next = state;
+	    tail[level] = state;
+
+	    occupied |= 1 << level;
+	}
+
+	/**
+	 * Remove a thread from the list it is on.
+	 */
+	private void unlink(BucketThreadState state) {
+	    int level = state.level;
+
+	    if (state.prev == null)
+		head[level] = state.next;
+	    else
+		state.prev.next = state.next;
+
+	    if (state.next == null)
+		tail[level] = state.prev;
+	    else
+		state.next.prev = state.prev;
+
+	    if (head[level] == null)
+		occupied &= ~(1 << level);
+
+	    state.prev = state.next = null;
+	}
+
+	private BucketThreadState[] head = new BucketThreadState[numLevels];
+	private BucketThreadState[] tail = new BucketThreadState[numLevels];
+	/** Bit <i>i</i> is set if the list for level <i>i</i> is not empty. */
+	private int occupied = 0;
+    }
+
+    /**
+     * The scheduling state of a thread, with the links for the list it is
+     * waiting on.
+     */
+    protected class BucketThreadState extends ThreadState {
+	/**
+	 * Allocate a new <tt>BucketThreadState</tt> object and associate it
+	 * with the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public BucketThreadState(KThread thread) {
+	    super(thread);
+	}
+
+	/** The level of the list this thread is on. */
+	private int level;
+	private BucketThreadState prev = null;
+	private BucketThreadState next = null;
+    }
+}
@@ -270,12 +270,28 @@ public class KThread {
    	 Lib.assertTrue(status != statusReady);
 
    	 status = statusReady;
-   	 if (this != idleThread)
+   	 if (this != idleThread) {
    		 readyQueue.waitForAccess(this);
+   		 numReady++;
+
+   		 // another thread wants the CPU, so the current one needs a slice
+   		 if (this != currentThread && ThreadedKernel.alarm != null)
+   			 ThreadedKernel.alarm.threadReady();
+   	 }
 
    	 Machine.autoGrader().readyThread(this);
     }
 
+    /**
+     * Return the number of threads in the ready queue, not counting the
+     * current thread or the idle thread.
+     *
+     * @return    the number of threads waiting to run.
+     */
+    public static int numReadyThreads() {
+   	 return numReady;
+    }
+
     /**
      * Waits for this thread to finish. If this thread is already finished,
      * return immediately. This method must only be called once; the second
@@ -331,8 +347,15 @@ public class KThread {
      */
     private static void runNextThread() {
    	 KThread nextThread = readyQueue.nextThread();
-   	 if (nextThread == null)
+   	 if (nextThread == null) {
+   		 // nothing can happen until the next interrupt, so skip ahead
+   		 if (currentThread == idleThread)
+   			 Machine.interrupt().idle();
    		 nextThread = idleThread;
+   	 }
+   	 else {
+   		 numReady--;
+   	 }
 
    	 nextThread.run();
     }
@@ -367,6 +390,9 @@ public class KThread {
    	 Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
    			 + " to: " + toString());
 
+   	 if (Machine.tracer() != null)
+   		 Machine.tracer().contextSwitch(currentThread.id, id);
+
    	 currentThread = this;
 
    	 tcb.contextSwitch();
@@ -467,6 +493,7 @@ public class KThread {
     //private static ThreadQueue joinQueue = null; // our own addition
 
     private static ThreadQueue readyQueue = null;
+    private static int numReady = 0;
     private static KThread currentThread = null;
     private static KThread toBeDestroyed = null;
     private static KThread idleThread = null;
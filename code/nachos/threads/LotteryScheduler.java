@@ -1,127 +1,317 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import nachos.threads.PriorityScheduler.PriorityQueue;
-import nachos.threads.PriorityScheduler.ThreadState;
-
-import java.util.*;
 
 /**
-* A scheduler that chooses threads using a lottery.
-*
-* <p>
-* A lottery scheduler associates a number of tickets with each thread. When a
-* thread needs to be dequeued, a random lottery is held, among all the tickets
-* of all the threads waiting to be dequeued. The thread that holds the winning
-* ticket is chosen.
-*
-* <p>
-* Note that a lottery scheduler must be able to handle a lot of tickets
-* (sometimes billions), so it is not acceptable to maintain state for every
-* ticket.
-*
-* <p>
-* A lottery scheduler must partially solve the priority inversion problem; in
-* particular, tickets must be transferred through locks, and through joins.
-* Unlike a priority scheduler, these tickets add (as opposed to just taking the
-* maximum).
-*/
+ * A scheduler that chooses threads using a lottery.
+ *
+ * <p>
+ * A lottery scheduler associates a number of tickets with each thread. When a
+ * thread needs to be dequeued, a random lottery is held, among all the tickets
+ * of all the threads waiting to be dequeued. The thread that holds the winning
+ * ticket is chosen.
+ *
+ * <p>
+ * Note that a lottery scheduler must be able to handle a lot of tickets
+ * (sometimes billions), so it is not acceptable to maintain state for every
+ * ticket.
+ *
+ * <p>
+ * A lottery scheduler must partially solve the priority inversion problem; in
+ * particular, tickets must be transferred through locks, and through joins.
+ * Unlike a priority scheduler, these tickets add (as opposed to just taking the
+ * maximum).
+ *
+ * <p>
+ * Each queue keeps the tickets of its waiting threads in a Fenwick tree, so
+ * holding a lottery, adding or removing a thread, and changing a thread's
+ * tickets all take logarithmic time. The winning tickets are drawn with
+ * <tt>Lib.random()</tt>, so lotteries are repeatable for a given random seed.
+ *
+ * <p>
+ * A thread's priority is the number of tickets it holds. Priorities range
+ * from <tt>priorityMinimum</tt> (1) to <tt>priorityMaximum</tt>
+ * (<tt>Integer.MAX_VALUE</tt>), not the 0 to 7 of
+ * <tt>PriorityScheduler</tt>, so every thread holds at least one ticket. A
+ * thread's effective priority, with the tickets donated to it, is clamped to
+ * <tt>priorityMaximum</tt>.
+ */
 public class LotteryScheduler extends PriorityScheduler {
-   /**
-    * Allocate a new lottery scheduler.
-    */
-   public LotteryScheduler() {
-   }
-   
-   public static final int priorityDefault = 1;
-   /**
-    * The minimum priority that a thread can have. Do not change this value.
-    */
-   public static final int priorityMinimum = 1;
-   /**
-    * The maximum priority that a thread can have. Do not change this value.
-    */
-   public static final int priorityMaximum = Integer.MAX_VALUE;
-   
-   public static ThreadState schedulingState = null;
-   
-   public KThread nextThread() {
-       boolean intStatus = Machine.interrupt().disable();
-       if(owner != null)
-           owner = null;
-
-       if (isEmpty()) {
-           owner = null;
-           Machine.interrupt().restore(intStatus);
-           return null;
-       }
-
-       owner = pickNextThread().thread;
-
-       if(owner != null) {
-           threadList.remove(owner);
-           acquire(owner);
-       }
-       Machine.interrupt().restore(intStatus);
-       return owner;
-   }
-
-   private void acquire(KThread thread) {
-       acquiredList.add(thread);
-   }
-
-   public void removeQueue(LotteryScheduler lottery) {            // Removes the queue from the list
-       acquiredList.remove(lottery);                            // This removes an entire queue
-   }
-
-   protected ThreadState pickNextThread() {
-       Random rand = new Random();
-       if(isEmpty())
-           return null;
-
-       int position = 0;
-       int current = 0;
-       int tickets;
-       int randNum;
-       
-       tickets = sum();
-       randNum = rand.nextInt(tickets) + 1;
-       
-       if(randNum == 1)
-           return getThreadState((KThread) threadList.get(0));
-
-       for(int i = 1; i < threadList.size(); i++) {
-           KThread thread = (KThread) threadList.get(i);
-           current += getThreadState(thread).getPriority();
-           if(current > randNum) {
-               position = i;
-               break;
-           }
-       }
-       return getThreadState((KThread) threadList.get(position));
-   }
-
-   protected int sum() {
-       if(isEmpty())
-           return 0;
-       
-       int current = 0;
-
-       for(int i = 0; i < threadList.size(); i++) {
-           KThread thread = (KThread) threadList.get(i);
-           current += getThreadState(thread).getPriority();
-           if(current > priorityMaximum) {
-               current = priorityMaximum;
-           }
-       }
-       return current;
-   }
-   
-   public boolean isEmpty() {
-       return threadList.isEmpty();
-   }
-   
-   protected ArrayList threadList = new ArrayList();
-   protected ArrayList acquiredList = new ArrayList();
-   protected KThread owner = null;
+    /**
+     * Allocate a new lottery scheduler.
+     */
+    public LotteryScheduler() {
+    }
+
+    /**
+     * Allocate a new lottery thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer tickets from waiting threads
+     *					to the owning thread.
+     * @return	a new lottery thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new LotteryQueue(transferPriority);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		       priority <= priorityMaximum);
+
+	getThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new LotteryThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * The default priority for a new thread. Do not change this value.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum priority that a thread can have. Do not change this value.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum priority that a thread can have. Do not change this value.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * Return the number of tickets, clamped to <tt>priorityMaximum</tt>.
+     */
+    private static int clamp(long tickets) {
+	return (int) Math.min(tickets, priorityMaximum);
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that holds a lottery among its waiting threads.
+     * The waiting threads' tickets are kept in a Fenwick tree over the slots
+     * the threads occupy.
+     */
+    protected class LotteryQueue extends PriorityQueue {
+	LotteryQueue(boolean transferPriority) {
+	    super(transferPriority);
+	}
+
+	/**
+	 * Return the next thread that <tt>nextThread()</tt> would return,
+	 * without modifying the state of this queue. The lottery is held when
+	 * this is first called, and its winner is kept until the queue
+	 * changes.
+	 *
+	 * @return	the next thread that <tt>nextThread()</tt> would
+	 *		return.
+	 */
+	protected ThreadState pickNextThread() {
+	    if (winner == null && total > 0)
+		winner = slots[find(draw())];
+
+	    return winner;
+	}
+
+	/**
+	 * Return the total tickets of all the threads waiting on this queue.
+	 *
+	 * @return	the tickets this queue donates to its owner.
+	 */
+	protected int getDonation() {
+	    return clamp(total);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<used; i++) {
+		if (slots[i] != null)
+		    System.out.print(slots[i].thread + " ");
+	    }
+	}
+
+	protected void add(ThreadState state) {
+	    LotteryThreadState lotteryState = (LotteryThreadState) state;
+
+	    int slot;
+	    if (numFree > 0) {
+		slot = free[--numFree];
+	    }
+	    else {
+		if (used == slots.length)
+		    grow();
+		slot = used++;
+	    }
+
+	    slots[slot] = lotteryState;
+	    lotteryState.slot = slot;
+	    lotteryState.tickets = state.effectivePriority;
+	    addTickets(slot, lotteryState.tickets);
+	}
+
+	protected void remove(ThreadState state) {
+	    LotteryThreadState lotteryState = (LotteryThreadState) state;
+	    int slot = lotteryState.slot;
+	    Lib.assertTrue(slots[slot] == lotteryState);
+
+	    addTickets(slot, -lotteryState.tickets);
+	    slots[slot] = null;
+	    free[numFree++] = slot;
+	    lotteryState.slot = -1;
+	}
+
+	protected void update(ThreadState state) {
+	    LotteryThreadState lotteryState = (LotteryThreadState) state;
+
+	    addTickets(lotteryState.slot,
+		       state.effectivePriority - lotteryState.tickets);
+	    lotteryState.tickets = state.effectivePriority;
+	}
+
+	/**
+	 * Choose the winning ticket, a number between 0 and
+	 * <tt>total - 1</tt>.
+	 */
+	private long draw() {
+	    if (total <= Integer.MAX_VALUE)
+		return Lib.random((int) total);
+	    else
+		return Math.min((long) (Lib.random() * total), total-1);
+	}
+
+	/**
+	 * Return the slot holding the specified ticket: the first slot whose
+	 * tickets, added to those of the slots before it, exceed it.
+	 */
+	private int find(long ticket) {
+	    int position = 0;
+
+	    for (int step=slots.length; step>0; step>>=1) {
+		if (position+step <= slots.length &&
+		    tree[position+step] <= ticket) {
+		    position += step;
+		    ticket -= tree[position];
+		}
+	    }
+
+	    return position;
+	}
+
+	private void addTickets(int slot, long tickets) {
+	    for (int i=slot+1; i<=slots.length; i+=(i & -i))
+		tree[i] += tickets;
+
+	    total += tickets;
+	    winner = null;
+	}
+
+	/**
+	 * Double the number of slots, rebuilding the tree.
+	 */
+	private void grow() {
+	    int capacity = slots.length*2;
+
+	    LotteryThreadState[] newSlots = new LotteryThreadState[capacity];
+	    System.arraycopy(slots, 0, newSlots, 0, slots.length);
+	    slots = newSlots;
+
+	    int[] newFree = new int[capacity];
+	    System.arraycopy(free, 0, newFree, 0, numFree);
+	    free = newFree;
+
+	    tree = new long[capacity+1];
+	    for (int i=1; i<=capacity; i++) {
+		if (slots[i-1] != null)
+		    tree[i] += slots[i-1].tickets;
+
+		int parent = i + (i & -i);
+		if (parent <= capacity)
+		    tree[parent] += tree[i];
+	    }
+	}
+
+	/** The thread in each slot; the size is always a power of two. */
+	private LotteryThreadState[] slots = new LotteryThreadState[8];
+	/** The Fenwick tree over the tickets in each slot, indexed from 1. */
+	private long[] tree = new long[slots.length+1];
+	private long total = 0;
+
+	/** The number of slots ever used. */
+	private int used = 0;
+	/** Slots below <tt>used</tt> that have been emptied. */
+	private int[] free = new int[slots.length];
+	private int numFree = 0;
+
+	private ThreadState winner = null;
+    }
+
+    /**
+     * The scheduling state of a thread. Its effective priority is the number
+     * of base tickets it holds, plus all the tickets donated by the queues it
+     * holds.
+     */
+    protected class LotteryThreadState extends ThreadState {
+	/**
+	 * Allocate a new <tt>LotteryThreadState</tt> object and associate it
+	 * with the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public LotteryThreadState(KThread thread) {
+	    super(thread);
+	}
+
+	protected int computeEffectivePriority() {
+	    long newPriority = priority;
+
+	    for (int i=0; i<acquired.size(); i++)
+		newPriority += ((PriorityQueue) acquired.get(i)).getDonation();
+
+	    return clamp(newPriority);
+	}
+
+	/** The slot the associated thread occupies in its queue. */
+	private int slot = -1;
+	/** The tickets counted for the associated thread in its queue. */
+	protected int tickets;
+    }
 }
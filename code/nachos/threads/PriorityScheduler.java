@@ -69,8 +69,10 @@ public class PriorityScheduler extends Scheduler {
    	 KThread thread = KThread.currentThread();
 
    	 int priority = getPriority(thread);
-   	 if (priority == priorityMaximum)
+   	 if (priority == priorityMaximum) {
+   		 Machine.interrupt().restore(intStatus);
    		 return false;
+   	 }
 
    	 setPriority(thread, priority+1);
 
@@ -84,8 +86,10 @@ public class PriorityScheduler extends Scheduler {
    	 KThread thread = KThread.currentThread();
 
    	 int priority = getPriority(thread);
-   	 if (priority == priorityMinimum)
+   	 if (priority == priorityMinimum) {
+   		 Machine.interrupt().restore(intStatus);
    		 return false;
+   	 }
 
    	 setPriority(thread, priority-1);
 
@@ -121,150 +125,184 @@ public class PriorityScheduler extends Scheduler {
 
 
     /**
-     * A <tt>ThreadQueue</tt> that sorts threads by priority.
+     * A <tt>ThreadQueue</tt> that sorts threads by priority. The waiting
+     * threads are kept in a binary heap ordered by effective priority and
+     * then by the simulated time at which they started waiting, so the next
+     * thread is found in constant time and a thread is added, removed, or
+     * moved when its effective priority changes in logarithmic time.
      */
     protected class PriorityQueue extends ThreadQueue {
-
-   	 protected ArrayList threadList = new ArrayList();    	// Creates a list of threads for the priority scheduler
-   	 protected KThread owner = null;   			// Makes a single thread the owner
-
    	 PriorityQueue(boolean transferPriority) {
-   		 this.transferPriority = transferPriority;   	// Transfers the priority to the current thread.
+   		 this.transferPriority = transferPriority;
    	 }
 
    	 public void waitForAccess(KThread thread) {
-   		 Lib.assertTrue(Machine.interrupt().disabled());// Disable interrupts for current thread
-
-   		 KThread threadTmp = null;
-   		 for (int i = 0; i < threadList.size(); i++) {  // Begins a for-loop that will span the size of the thread list stored in threadList
-   			 threadTmp = (KThread)threadList.get(i);// Gets the thread at i placed into threadTmp, a temporary thread holder.
-   			 getThreadState(thread).invalidatePriority();// It resets the priority of the effective priority
-   		 }
-   		 
-   		 threadList.add(thread);   			// Adds a passed in thread to the threadList
-   		 getThreadState(thread).waitForAccess(this);   	// The thread is waiting for this to finish before getting the thread state.
+   		 Lib.assertTrue(Machine.interrupt().disabled());
+   		 getThreadState(thread).waitForAccess(this);
    	 }
 
    	 public void acquire(KThread thread) {
-   		 Lib.assertTrue(Machine.interrupt().disabled());// Disable interrupts for current thread
-   		 owner = thread;   				// The owner acquires the current thread and all of its ownerships
-   		 getThreadState(thread).acquire(this);   	// The thread can acquire this thread's state
+   		 Lib.assertTrue(Machine.interrupt().disabled());
+   		 getThreadState(thread).acquire(this);
+   	 }
+
+   	 public KThread nextThread() {
+   		 Lib.assertTrue(Machine.interrupt().disabled());
+
+   		 if (owner != null)
+   			 owner.release(this);
+
+   		 ThreadState next = pickNextThread();
+   		 if (next == null)
+   			 return null;
+
+   		 remove(next);
+   		 next.acquire(this);
+
+   		 return next.thread;
    	 }
 
    	 /**
-   	  * Will choose the next thread and place it into owner, returning it.
+   	  * Return the next thread that <tt>nextThread()</tt> would return,
+   	  * without modifying the state of this queue.
    	  *
-   	  * @see nachos.threads.PriorityScheduler#nextThread
-   	  * @return The new owner
+   	  * @return    the next thread that <tt>nextThread()</tt> would
+   	  *		return.
    	  */
-   	 public KThread nextThread() {   			// This thread takes the next thread, removing it from the waiting thread list. Pick next thread just chooses the next.
-   		 boolean intStatus = Machine.interrupt().disable();// Disable interrupts for current thread
+   	 protected ThreadState pickNextThread() {
+   		 return (size == 0) ? null : heap[0];
+   	 }
 
-   		 if (owner != null){   				// Checks to see if there is a current value in owner
-   			 getThreadState(owner).removeQueue(this);// If there is, remove it from the queue. It is just a check to see if its a idleThread
-   		 }
+   	 /**
+   	  * Return the highest effective priority of any thread waiting on
+   	  * this queue, or <tt>priorityMinimum</tt> if none are.
+   	  *
+   	  * @return    the priority this queue donates to its owner.
+   	  */
+   	 protected int getDonation() {
+   		 ThreadState next = pickNextThread();
+   		 return (next == null) ? priorityMinimum : next.effectivePriority;
+   	 }
 
-   		 /**
-   		  * This checks to see if there is anything on the waiting to run thread list.
-   		  * If there is, it will skip as isEmpty() will return false, otherwise this will
-   		  * run, exiting this current method.
-   		  */
-   		 if (isEmpty()) {   				// If there is nothing in the list
-   			 owner = null;   			// Deallocated the owner, removing all attributes from it
-   			 Machine.interrupt().restore(intStatus);// The interrupts are re-enabled
-   			 return null;   			// Return null to exit nextThread
-   		 }
+   	 public void print() {
+   		 Lib.assertTrue(Machine.interrupt().disabled());
 
-   		 owner = pickNextThread().thread;  // If it reaches here, there is something on the list, and the owner becomes the next thing on that list.
+   		 for (int i=0; i<size; i++)
+   			 System.out.print(heap[i].thread + " ");
+   	 }
 
-   		 if (owner != null) {   			// If owner is not null, aka if it is not idle
-   			 getThreadState(owner).invalidatePriority();// Resets effectivePriority
-   			 threadList.remove(owner);   		// Removes the owner from the thread list
-   			 acquire(owner);   			// The owner acquires access
+   	 /**
+   	  * Add a thread to the heap.
+   	  */
+   	 protected void add(ThreadState state) {
+   		 if (size == heap.length) {
+   			 ThreadState[] newHeap = new ThreadState[size*2];
+   			 System.arraycopy(heap, 0, newHeap, 0, size);
+   			 heap = newHeap;
    		 }
-   		 Machine.interrupt().restore(intStatus);   	// Restores interrupts
-   		 return owner;   				// Returns the owner
+
+   		 state.heapIndex = size++;
+   		 heap[state.heapIndex] = state;
+   		 siftUp(state.heapIndex);
    	 }
 
    	 /**
-   	  * Checks to see if the thread list is empty or not. This will be used to
-   	  * determine if there is anything waiting to be run.
-   	  *
-   	  * @see nachos.threads.PriorityScheduler#isEmpty
-   	  * @return <tt>True</tt> if empty, <tt>false</tt> is not
+   	  * Remove a thread from the heap.
    	  */
-   	 public boolean isEmpty() {   				// Checks to see if the threadList is empty
-   		 return threadList.isEmpty();   		// True if empty, false if not.
+   	 protected void remove(ThreadState state) {
+   		 int i = state.heapIndex;
+   		 Lib.assertTrue(heap[i] == state);
+
+   		 size--;
+   		 if (i != size) {
+   			 move(heap[size], i);
+   			 update(heap[i]);
+   		 }
+   		 heap[size] = null;
+   		 state.heapIndex = -1;
    	 }
 
    	 /**
-   	  * Return the next thread that <tt>nextThread()</tt> would return,
-   	  * without modifying the state of this queue.
-   	  *
-   	  * @return    the next thread that <tt>nextThread()</tt> would
-   	  *   	 return.
+   	  * Restore the heap order after the effective priority of a waiting
+   	  * thread has changed.
    	  */
-   	 protected ThreadState pickNextThread() {   		// Looks to see what the next thread is, a peek function
-   		 if (isEmpty())   				// If there is nothing on the thread list
-   			 return null;   			// Returns nothing
-
-   		 int position = 0;   				// Position of the thread in the list
-   		 int max = 0;   				// Max priority
-   		 int current = 0;   				// current priority
-   		 long currentTime = System.currentTimeMillis(); // Gets the current time, right now
-   		 long waitedTime = 0;   			// The time the thread was put onto the waiting queue
-
-   		 // Checks the priorities of all waiting threads. If equivalent priorities, takes longest time.
-   		 for (int i = 0; i < threadList.size(); i++) {    // Goes through the list of threads waiting
-   			 KThread thread = (KThread) threadList.get(i);// gets the value in the list
-
-   			 if (transferPriority)   		// true if this queue should transfer priority from waiting threads to the owning thread.
-   				 current = getThreadState(thread).getEffectivePriority();// Gets the effective priority
-   			 else   				// this queue should not transfer from waiting thread to owning thread
-   				 current = getThreadState(thread).getPriority();// gets the priority
-
-   			 if (current > max) {   		// As long as current is more than 1, there will be a new value of max the first time, after that it will take the max.
-   				 max = current;   		// If current is larger, max becomes current
-   				 position = i;   		// The position the the thread is saved
-   				 currentTime = waitedTime;   	// The clock is reset
-   			 }
-   			 else if (current == max) {   		// If they have the same priority
-   				 waitedTime = getThreadState(thread).getWaitingTime();// Gets how long the current thread has been waiting
-   				 if (waitedTime < currentTime) {// Compares the current time to the other time the smaller the number, the longer it has been waiting,
-   					 currentTime = waitedTime;// The current time gets updated to be replaced with the oldest waiting position/time
-   					 position = i;   	// Gets the new position
-   				 }
-   			 }
+   	 protected void update(ThreadState state) {
+   		 siftUp(state.heapIndex);
+   		 siftDown(state.heapIndex);
+   	 }
+
+   	 private void siftUp(int i) {
+   		 ThreadState state = heap[i];
+
+   		 while (i > 0) {
+   			 int parent = (i-1)/2;
+   			 if (!before(state, heap[parent]))
+   				 break;
+
+   			 move(heap[parent], i);
+   			 i = parent;
+   		 }
+
+   		 move(state, i);
+   	 }
+
+   	 private void siftDown(int i) {
+   		 ThreadState state = heap[i];
+
+   		 while (true) {
+   			 int child = 2*i + 1;
+   			 if (child >= size)
+   				 break;
+   			 if (child+1 < size && before(heap[child+1], heap[child]))
+   				 child++;
+   			 if (!before(heap[child], state))
+   				 break;
+
+   			 move(heap[child], i);
+   			 i = child;
    		 }
-   		 
-   		 return getThreadState((KThread) threadList.get(position));// returns the thread that you will be choosing at position
+
+   		 move(state, i);
+   	 }
+
+   	 private void move(ThreadState state, int i) {
+   		 heap[i] = state;
+   		 state.heapIndex = i;
    	 }
 
    	 /**
-   	  * Pretty useless. We do not call it.
-   	  *
-   	  * @see nachos.threads.PriorityScheduler#print
+   	  * Test whether <tt>a</tt> should leave this queue before <tt>b</tt>:
+   	  * it has a higher effective priority, or the same priority and has
+   	  * been waiting longer.
    	  */
-   	 public void print() {
-   		 Lib.assertTrue(Machine.interrupt().disabled());
-   		 // Don't really want to <3
+   	 protected boolean before(ThreadState a, ThreadState b) {
+   		 if (a.effectivePriority != b.effectivePriority)
+   			 return a.effectivePriority > b.effectivePriority;
+
+   		 return waitedLonger(a, b);
    	 }
 
    	 /**
-   	  * <tt>true</tt> if this queue should transfer priority from waiting
-   	  * threads to the owning thread.
+   	  * Test whether <tt>a</tt> started waiting on this queue before
+   	  * <tt>b</tt>.
    	  */
-   	 public boolean transferPriority;   // Just a boolean, nothing to see >.>
+   	 protected boolean waitedLonger(ThreadState a, ThreadState b) {
+   		 if (a.waitTime != b.waitTime)
+   			 return a.waitTime < b.waitTime;
+   		 return a.waitNumber < b.waitNumber;
+   	 }
 
    	 /**
-   	  * Returns the list of threads that are being used in the priority
-   	  * scheduler.
-   	  *
-   	  * @see nachos.threads.PriorityScheduler#getThreadList
+   	  * <tt>true</tt> if this queue should transfer priority from waiting
+   	  * threads to the owning thread.
    	  */
-   	 public ArrayList getThreadList() { // Just a function call to get the list of threads
-   		 return threadList;   	    // Yup...
-   	 }
+   	 public boolean transferPriority;
+
+   	 /** The thread that last acquired this queue, if any. */
+   	 protected ThreadState owner = null;
+
+   	 private ThreadState[] heap = new ThreadState[8];
+   	 private int size = 0;
     }
 
     /**
@@ -272,15 +310,16 @@ public class PriorityScheduler extends Scheduler {
      * priority, its effective priority, any objects it owns, and the queue
      * it's waiting for, if any.
      *
+     * <p>
+     * The effective priority is always kept up to date, rather than being
+     * recomputed when it is asked for. When it changes, the change is pushed
+     * to the queue the thread is waiting on and, if that queue transfers
+     * priority, on to the queue's owner, stopping as soon as some thread's
+     * effective priority stays the same.
+     *
      * @see    nachos.threads.KThread#schedulingState
      */
-    protected class ThreadState implements Comparable {
-
-   	 protected ArrayList acquiredList = new ArrayList();    // Creates a new list, later adding the wait queue to the list
-   	 protected long waitingTime = System.currentTimeMillis();// Gets the current time
-   	 protected int effectivePriority = -1;   		// Will change to the donated priority
-   	 protected int recalcPriority = -1;   			// Will always stay -1
-
+    protected class ThreadState {
    	 /**
    	  * Allocate a new <tt>ThreadState</tt> object and associate it with the
    	  * specified thread.
@@ -288,8 +327,9 @@ public class PriorityScheduler extends Scheduler {
    	  * @param    thread    the thread this state belongs to.
    	  */
    	 public ThreadState(KThread thread) {
-   		 this.thread = thread;   			// Passes in a thread and makes it this thread
-   		 setPriority(priorityDefault);   		// Makes it the default priority
+   		 this.thread = thread;
+   		 this.priority = priorityDefault;
+   		 this.effectivePriority = priorityDefault;
    	 }
 
    	 /**
@@ -298,7 +338,7 @@ public class PriorityScheduler extends Scheduler {
    	  * @return    the priority of the associated thread.
    	  */
    	 public int getPriority() {
-   		 return priority;   				// Returning the priority
+   		 return priority;
    	 }
 
    	 /**
@@ -306,62 +346,21 @@ public class PriorityScheduler extends Scheduler {
    	  *
    	  * @return    the effective priority of the associated thread.
    	  */
-   	 public int getEffectivePriority() {   			// Where it starts to get fun....
-   		 /**
-   		  * This will be used for all the waiting threads.
-   		  */
-   		 PriorityQueue waitQueue = null;   		// Starts the wait queue at nothing, the wait queue will be used for all of the waiting threads
-   		 ArrayList threads = null;   			// Same with the list of arrays, will be used for the list of threads
-   		 int max = priority;   				// Saves the current priority as the max
-   		 int current = 0;   				// Current is the priority after scheduling, just initializing right now
-
-   		 /**
-   		  * Because effectivePriority is being recalculated often and the number is being saved to priority,
-   		  * it will calculate it and save it to effective priority. If it has not been reset, it will have
-   		  * its value, a number that is not -1. Because it is not -1, it can not be changed in this method
-   		  * and will therefore return its current value.
-   		  */
-   		 if (effectivePriority == recalcPriority) {   	 // Static for the effective priority
-   			 for (int i = 0; i < acquiredList.size(); i++) {// For loop for the size of the list
-   				 waitQueue = (PriorityQueue) acquiredList.get(i);// Passes in the thread at point i to waitQueue
-   				 threads = waitQueue.getThreadList();    // Passes the array of threads into threads
-   				 for (int j = 0; j < threads.size(); j++) {// Just a for-loop at the size of the list of threads
-   					 current = ((ThreadState)((KThread)threads.get(j)).schedulingState).getEffectivePriority();// Gets the current priority after scheduling
-   					 if (current > max) {    // If the current priority is greater than the previous highest,
-   						 max = current;  // Saves the newest highest priority to max
-   						 effectivePriority = max; // Saves the highest priority to effective priority
-   					 }
-   				 }    
-   			 }   	 
-   		 }
-   		 
-   		 /**
-   		  * Can do this double check because it will change the effective priority in the previous section.
-   		  * If it is changed previously, it will not do anything here, but if it is not changed, it will
-   		  * get its priority.
-   		  */
-   		 if (effectivePriority == -1)   			// If the effective priority has not changed,
-   			 effectivePriority = getPriority();   		// It gets the current priority of the thread
-   		 return effectivePriority;   				// Then it returns what the new effective priority is
+   	 public int getEffectivePriority() {
+   		 return effectivePriority;
    	 }
 
    	 /**
-   	  * Set the priority of the associated thread to the specified value. Will also
-   	  * check to make sure priorities are not at max or min values.
+   	  * Set the priority of the associated thread to the specified value.
    	  *
    	  * @param    priority    the new priority.
    	  */
    	 public void setPriority(int priority) {
-   		 if (this.priority == priority)   			// If the priorities are equal, nothing to be done so exits
-   			 return;   					// In this case, an exit call
-   		 else if (priority > PriorityScheduler.priorityMaximum) // If the new priority will be above the max priority,
-   			 this.priority = PriorityScheduler.priorityMaximum;// It gets the max value (7)
-   		 else if (priority < PriorityScheduler.priorityMinimum) // If it is under the minimum,
-   			 this.priority = PriorityScheduler.priorityMinimum;// It will be set as the minimum (0)
-   		 else
-   			 this.priority = priority;   			// Otherwise, the priority will get the priority
-   		 effectivePriority = recalcPriority;   			// Resets effective priority to -1
+   		 if (this.priority == priority)
+   			 return;
 
+   		 this.priority = priority;
+   		 updateEffectivePriority();
    	 }
 
    	 /**
@@ -372,12 +371,20 @@ public class PriorityScheduler extends Scheduler {
    	  * if the associated thread cannot immediately obtain access.
    	  *
    	  * @param    waitQueue    the queue that the associated thread is
-   	  *   			 now waiting on.
+   	  *				now waiting on.
    	  *
    	  * @see    nachos.threads.ThreadQueue#waitForAccess
    	  */
    	 public void waitForAccess(PriorityQueue waitQueue) {
-   		 waitingTime = System.currentTimeMillis();   	 // Passes in the current time to waiting time
+   		 Lib.assertTrue(this.waitQueue == null);
+
+   		 this.waitQueue = waitQueue;
+   		 waitTime = Machine.timer().getTime();
+   		 waitNumber = numWaits++;
+   		 waitQueue.add(this);
+
+   		 if (waitQueue.transferPriority && waitQueue.owner != null)
+   			 waitQueue.owner.updateEffectivePriority();
    	 }
 
    	 /**
@@ -391,81 +398,92 @@ public class PriorityScheduler extends Scheduler {
    	  * @see    nachos.threads.ThreadQueue#nextThread
    	  */
    	 public void acquire(PriorityQueue waitQueue) {
-   		 acquiredList.add(waitQueue);
+   		 if (this.waitQueue == waitQueue)
+   			 this.waitQueue = null;
 
-   		 effectivePriority = recalcPriority;
-   	 }    
+   		 waitQueue.owner = this;
 
-   	 /**
-   	  * Called when the associated thread wishes to know when an item goes
-   	  * onto the stack.
-   	  *
-   	  * @see nachos.threads.ThreadQueue#getWaitingTime
-   	  */
-   	 public long getWaitingTime() {   				// Returns the waiting time
-   		 return waitingTime;
+   		 if (waitQueue.transferPriority) {
+   			 acquired.add(waitQueue);
+   			 updateEffectivePriority();
+   		 }
    	 }
 
    	 /**
-   	  * Called when a queue is to be removed from a list
-   	  *
-   	  * @see nachos.threads.threadQueue#removeQueue
+   	  * Called when the associated thread gives up whatever is guarded by
+   	  * <tt>waitQueue</tt>, so that it no longer receives the priority of
+   	  * the threads waiting on it.
    	  */
-   	 public void removeQueue(PriorityQueue queue) {   		// Removes the queue from the list
-   		 acquiredList.remove(queue);   				// This removes an entire queue
-   	 }
+   	 protected void release(PriorityQueue waitQueue) {
+   		 waitQueue.owner = null;
 
-   	 /**
-   	  * When called, invalidatePriority will reset the <tt>effectivePriority</tt>.
-   	  *
-   	  * @see nachos.threads.threadQueue#invalidatePriority
-   	  */
-   	 public void invalidatePriority() {   				// Resets the priority
-   		 effectivePriority = recalcPriority;
+   		 if (waitQueue.transferPriority) {
+   			 acquired.remove(waitQueue);
+   			 updateEffectivePriority();
+   		 }
    	 }
-   	 
-   	 /** The thread with which this object is associated. */       
-   	 protected KThread thread;
-   	 /** The priority of the associated thread. */
-   	 protected int priority;
 
    	 /**
-   	  * Compares an object passed into <tt>compareTo()</tt> to the current object
-   	  * checking the priotity's to each other, and if the object's priority is
-   	  * greater than the current, or they are the same and the waiting time is longer,
-   	  * an integer value is returned, -1, 0, or 1. No explicit calls in this class.
-   	  * It, however, is essential to the entire class's implementation.
-   	  *
-   	  * @see nachos.threads.threadQueue#compareTo
+   	  * Recompute the effective priority of this thread from its own
+   	  * priority and the queues it holds, and propagate any change along
+   	  * the chain of threads it is waiting behind.
    	  */
-   	 public int compareTo(Object obj) {   				 // Compares an object to the current object
-   		 long waitingTime1 = (this.waitingTime);   		 // Gets and saves the current object's waiting time
-   		 long waitingTime2 = (((ThreadState)obj).waitingTime);   // Saves the object passed in's waiting time
-   		 long priority1 = (this.priority);   			 // Gets the priority of the current object
-   		 long priority2 = (((ThreadState)obj).priority);   	 // Gets the priority of the object passed in
-   		 if (priority1 > priority2)   				 // If the current thread's priority is greater than the object's priority
-   			 return -1;   					 // return -1
-   		 else if (priority1 < priority2)   			 // If its priority is less than the passed in object
-   			 return 1;   					 // return 1
-   		 else{   						 // If the priorities are equal
-   			 if(waitingTime1 < waitingTime2)    		 // compare the waiting times, if the waiting time of the current thread is less than that of the new object return -1.
-   				 return -1;   			 	 // This is true because you want the lower number. (it does not go by actual waiting time, just the starting time)
-   			 else if (waitingTime1 > waitingTime2)   	 // If its waiting time is higher, return 1
-   				 return 1;
-   			 else
-   				 return 0;   				 // Otherwise they have been waiting the exact same time and are equal.
+   	 protected void updateEffectivePriority() {
+   		 ThreadState state = this;
+
+   		 while (state != null) {
+   			 int newPriority = state.computeEffectivePriority();
+   			 if (newPriority == state.effectivePriority)
+   				 return;
+
+   			 state.effectivePriority = newPriority;
+
+   			 PriorityQueue queue = state.waitQueue;
+   			 if (queue == null)
+   				 return;
+
+   			 queue.update(state);
+   			 state = queue.transferPriority ? queue.owner : null;
    		 }
    	 }
 
    	 /**
-   	  * Passes in an <tt>object</tt> and checks it against the current object
+   	  * Return the effective priority of the associated thread, computed
+   	  * from its own priority and the donations of the queues it holds: the
+   	  * highest of these.
    	  *
-   	  * @see nachos.threads.threadQueue#equals
+   	  * @return    the new effective priority of the associated thread.
    	  */
-   	 public boolean equals(Object obj) {   				 // Checks to
-   		 if (this.waitingTime == ((ThreadState)obj).waitingTime && this.priority == ((ThreadState)obj).priority)
-   			 return true;
-   		 return false;
+   	 protected int computeEffectivePriority() {
+   		 int newPriority = priority;
+   		 for (int i=0; i<acquired.size(); i++) {
+   			 int donation = ((PriorityQueue) acquired.get(i)).getDonation();
+   			 if (donation > newPriority)
+   				 newPriority = donation;
+   		 }
+
+   		 return newPriority;
    	 }
+
+   	 /** The thread with which this object is associated. */
+   	 protected KThread thread;
+   	 /** The priority of the associated thread. */
+   	 protected int priority;
+   	 /** The priority of the associated thread, including donations. */
+   	 protected int effectivePriority;
+
+   	 /** The queue the associated thread is waiting on, if any. */
+   	 protected PriorityQueue waitQueue = null;
+   	 /** The priority-transferring queues the associated thread holds. */
+   	 protected ArrayList acquired = new ArrayList();
+
+   	 /** The simulated time at which the thread started waiting. */
+   	 private long waitTime;
+   	 /** Orders threads that started waiting at the same time. */
+   	 private long waitNumber;
+   	 /** The position of the associated thread in its queue's heap. */
+   	 private int heapIndex = -1;
     }
+
+    private long numWaits = 0;
 }
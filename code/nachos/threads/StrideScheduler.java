@@ -0,0 +1,151 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A scheduler that divides access among threads in proportion to their
+ * tickets, like a lottery scheduler, but deterministically.
+ *
+ * <p>
+ * Each thread has a <i>stride</i>, inversely proportional to its tickets, and
+ * a <i>pass</i>. Each queue keeps its waiting threads in a heap ordered by
+ * pass, and always dequeues the thread with the lowest pass. A thread that
+ * starts waiting on a queue gets a pass one stride beyond the pass of the
+ * thread the queue last dequeued, so a thread that keeps coming back to the
+ * same queue advances by its stride each time, and a thread with twice the
+ * tickets is dequeued twice as often. Unlike a lottery, the error in each
+ * thread's share never grows beyond one dequeue.
+ *
+ * <p>
+ * Tickets, currencies, and ticket transfer through locks and joins work the
+ * same way as in <tt>LotteryScheduler</tt>. When a waiting thread's tickets
+ * change, the part of its stride it has yet to wait out is scaled to its new
+ * stride.
+ */
+public class StrideScheduler extends LotteryScheduler {
+    /**
+     * Allocate a new stride scheduler.
+     */
+    public StrideScheduler() {
+    }
+
+    /**
+     * Allocate a new stride thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer tickets from waiting threads
+     *					to the owning thread.
+     * @return	a new stride thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new StrideQueue(transferPriority);
+    }
+
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new StrideThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * Return the stride of a thread holding the specified number of tickets.
+     */
+    private static long stride(int tickets) {
+	return Math.max(1, stride1 / tickets);
+    }
+
+    /** The stride of a thread holding one ticket. */
+    private static final long stride1 = 1L << 30;
+
+    /**
+     * A <tt>ThreadQueue</tt> that dequeues the waiting thread with the lowest
+     * pass.
+     */
+    protected class StrideQueue extends PriorityQueue {
+	StrideQueue(boolean transferPriority) {
+	    super(transferPriority);
+	}
+
+	/**
+	 * Return the total tickets of all the threads waiting on this queue.
+	 *
+	 * @return	the tickets this queue donates to its owner.
+	 */
+	protected int getDonation() {
+	    return (int) Math.min(total, priorityMaximum);
+	}
+
+	protected void add(ThreadState state) {
+	    StrideThreadState strideState = (StrideThreadState) state;
+
+	    strideState.tickets = state.effectivePriority;
+	    strideState.pass = pass + stride(strideState.tickets);
+	    total += strideState.tickets;
+
+	    super.add(state);
+	}
+
+	/**
+	 * Remove a thread from the heap. A thread only leaves a queue when it
+	 * is dequeued, so its pass becomes the pass of the queue.
+	 */
+	protected void remove(ThreadState state) {
+	    StrideThreadState strideState = (StrideThreadState) state;
+
+	    total -= strideState.tickets;
+	    pass = strideState.pass;
+
+	    super.remove(state);
+	}
+
+	protected void update(ThreadState state) {
+	    StrideThreadState strideState = (StrideThreadState) state;
+
+	    int tickets = state.effectivePriority;
+	    strideState.pass = pass + (strideState.pass - pass) *
+		stride(tickets) / stride(strideState.tickets);
+	    total += tickets - strideState.tickets;
+	    strideState.tickets = tickets;
+
+	    super.update(state);
+	}
+
+	/**
+	 * Test whether <tt>a</tt> should leave this queue before <tt>b</tt>:
+	 * it has a lower pass, or the same pass and has been waiting longer.
+	 */
+	protected boolean before(ThreadState a, ThreadState b) {
+	    long passA = ((StrideThreadState) a).pass;
+	    long passB = ((StrideThreadState) b).pass;
+
+	    if (passA != passB)
+		return passA < passB;
+
+	    return waitedLonger(a, b);
+	}
+
+	/** The pass of the thread this queue last dequeued. */
+	private long pass = 0;
+	private long total = 0;
+    }
+
+    /**
+     * The scheduling state of a thread, with its pass on the queue it is
+     * waiting on.
+     */
+    protected class StrideThreadState extends LotteryThreadState {
+	/**
+	 * Allocate a new <tt>StrideThreadState</tt> object and associate it
+	 * with the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public StrideThreadState(KThread thread) {
+	    super(thread);
+	}
+
+	/** The pass of the associated thread on its queue. */
+	private long pass;
+    }
+}
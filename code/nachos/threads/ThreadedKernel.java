@@ -41,7 +41,9 @@ public class ThreadedKernel extends Kernel {
 
     /**
      * Test this kernel. Test the <tt>KThread</tt>, <tt>Semaphore</tt>,
-     * <tt>SynchList</tt>, and <tt>ElevatorBank</tt> classes. Note that the
+     * <tt>SynchList</tt>, and <tt>ElevatorBank</tt> classes, and, if
+     * <tt>Processor.selfTest</tt> is set, the <tt>Processor</tt> class. Note
+     * that the
      * autograder never calls this method, so it is safe to put additional
      * tests here.
      */	
@@ -52,6 +54,10 @@ public class ThreadedKernel extends Kernel {
 	if (Machine.bank() != null) {
 	    ElevatorBank.selfTest();
 	}
+	if (Machine.processor() != null &&
+	    Config.getBoolean("Processor.selfTest", false)) {
+	    new ProcessorTest().run();
+	}
     }
     
     /**
@@ -83,4 +89,6 @@ public class ThreadedKernel extends Kernel {
     private static Communicator dummy5 = null;
     private static Rider dummy6 = null;
     private static ElevatorController dummy7 = null;
+    private static BucketScheduler dummy8 = null;
+    private static StrideScheduler dummy9 = null;
 }
@@ -228,6 +228,8 @@ public class UserProcess {
 		int physicalAddr =  pageTable[pageIndex].ppn*pageSize + pageOffset;
 		// this time it transfers data from the specified array to this process's virtual memory
 		System.arraycopy(data, offset + byteNum, memory, physicalAddr, amountToWrite);
+		// any instructions the processor decoded from this page are now stale
+		Machine.processor().invalidatePage(pageTable[pageIndex].ppn);
 		byteNum += amountToWrite;
 	}while(byteNum < length);
 
@@ -369,10 +371,56 @@ public class UserProcess {
 			section.loadPage(i, pageTable[vpn].ppn);
 		    }
 		}
+
+		if (Config.getBoolean("UserProcess.superpages", false))
+		    promoteSuperpages();
 		
 		return true;
     }
 
+    /**
+     * Mark aligned runs of pages that are contiguous in physical memory and
+     * have the same protection as superpages, so that a TLB can map each run
+     * with one entry. Each entry in a run keeps its own vpn and ppn, and has
+     * <tt>numPages</tt> set to the size of the run.
+     *
+     * <p>
+     * This is only done if <tt>UserProcess.superpages</tt> is set, since a
+     * TLB entry for a superpage has one used bit and one dirty bit for the
+     * whole run. A kernel that remaps or evicts single pages must not turn
+     * it on, or must reset <tt>numPages</tt> to 1 in every entry it changes.
+     */
+    protected void promoteSuperpages() {
+	for (int vpn=0; vpn<numPages; ) {
+	    int size = maxSuperpagePages;
+	    while (size > 1 && !contiguous(vpn, size))
+		size /= 2;
+
+	    for (int i=0; i<size; i++)
+		pageTable[vpn+i].numPages = size;
+
+	    vpn += size;
+	}
+    }
+
+    /**
+     * Test whether the <i>size</i> pages starting at <i>vpn</i> can be mapped
+     * as one superpage.
+     */
+    private boolean contiguous(int vpn, int size) {
+	if (vpn % size != 0 || vpn + size > numPages ||
+	    pageTable[vpn].ppn % size != 0)
+	    return false;
+
+	for (int i=1; i<size; i++) {
+	    if (pageTable[vpn+i].ppn != pageTable[vpn].ppn + i ||
+		pageTable[vpn+i].readOnly != pageTable[vpn].readOnly)
+		return false;
+	}
+
+	return true;
+    }
+
     /**
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
@@ -386,6 +434,7 @@ public class UserProcess {
     		pageTable[i] = null;
     	}
     	UserKernel.availablePageLock.release();
+    	Machine.processor().invalidateTranslations();
     }    
 
     /**
@@ -704,6 +753,8 @@ public class UserProcess {
 
     /** The number of pages in the program's stack. */
     protected final int stackPages = 8;
+    /** The largest superpage <tt>promoteSuperpages()</tt> will create. */
+    protected static final int maxSuperpagePages = 64;
     
     private int initialPC, initialSP;
     private int argc, argv;
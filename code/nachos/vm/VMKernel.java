@@ -1,5 +1,7 @@
 package nachos.vm;
 
+import java.util.LinkedList;
+
 import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
@@ -21,6 +23,12 @@ public class VMKernel extends UserKernel {
      */
     public void initialize(String[] args) {
 	super.initialize(args);
+
+	// ASID 0 is shared by processes that find no ASID free
+	availableASIDs = new LinkedList<Integer>();
+	availableASIDLock = new Lock();
+	for (int i=1; i<Processor.numASIDs; i++)
+	    availableASIDs.add(i);
     }
 
     /**
@@ -44,6 +52,12 @@ public class VMKernel extends UserKernel {
 	super.terminate();
     }
 
+    /** ASIDs not owned by any running process. */
+    public static LinkedList<Integer> availableASIDs;
+    public static Lock availableASIDLock;
+    /** The ASID used by processes that could not get one of their own. */
+    public static final int sharedASID = 0;
+
     // dummy variables to make javac smarter
     private static VMProcess dummy1 = null;
 
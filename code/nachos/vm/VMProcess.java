@@ -14,6 +14,16 @@ public class VMProcess extends UserProcess {
      */
     public VMProcess() {
 	super();
+
+	if (Machine.processor().hasTLB()) {
+	    VMKernel.availableASIDLock.acquire();
+	    if (!VMKernel.availableASIDs.isEmpty())
+		asid = VMKernel.availableASIDs.removeFirst();
+	    VMKernel.availableASIDLock.release();
+
+	    // entries left behind by an earlier process with the same ASID
+	    Machine.processor().flushASID(asid);
+	}
     }
 
     /**
@@ -29,7 +39,16 @@ public class VMProcess extends UserProcess {
      * <tt>UThread.restoreState()</tt>.
      */
     public void restoreState() {
-	super.restoreState();
+	// with a TLB, this process's entries stay valid while others run,
+	// unless it has to share its ASID
+	if (Machine.processor().hasTLB()) {
+	    Machine.processor().setASID(asid);
+	    if (asid == VMKernel.sharedASID)
+		Machine.processor().flushASID(asid);
+	}
+	else {
+	    super.restoreState();
+	}
     }
 
     /**
@@ -47,6 +66,14 @@ public class VMProcess extends UserProcess {
      */
     protected void unloadSections() {
 	super.unloadSections();
+
+	if (asid != VMKernel.sharedASID) {
+	    VMKernel.availableASIDLock.acquire();
+	    VMKernel.availableASIDs.add(asid);
+	    VMKernel.availableASIDLock.release();
+
+	    asid = VMKernel.sharedASID;
+	}
     }    
 
     /**
@@ -67,6 +94,13 @@ public class VMProcess extends UserProcess {
 	}
     }
 	
+    /**
+     * The address space identifier tagging this process's TLB entries, or
+     * <tt>VMKernel.sharedASID</tt> if every ASID was taken when it was
+     * created.
+     */
+    private int asid = VMKernel.sharedASID;
+
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';
     private static final char dbgVM = 'v';